@@ -0,0 +1,41 @@
+package be.kevinbaes.bap.r2dbcshowcase.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run all benchmarks with throughput, average time and the GC profiler (gc.alloc.rate.norm is bytes per operation).
+ *
+ * Optional first argument: the database, h2 (default) or postgres.
+ * Optional second argument: a regex to only run some benchmarks, e.g. Lookup
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String database = args.length > 0 ? args[0] : "h2";
+        String include = args.length > 1 ? args[1] : ".*Benchmark";
+
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + "." + include)
+                .param("database", database)
+                .mode(Mode.Throughput)
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .warmupIterations(5)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2))
+                .forks(1)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,61 @@
+package be.kevinbaes.bap.r2dbcshowcase.benchmark;
+
+import io.r2dbc.client.Update;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import reactor.core.publisher.Flux;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Insert BATCH_SIZE goals on one connection with bound parameters, results are per inserted row.
+ */
+@OperationsPerInvocation(BulkInsertBenchmark.BATCH_SIZE)
+public class BulkInsertBenchmark {
+
+    static final int BATCH_SIZE = 1000;
+
+    @Benchmark
+    public int[] jdbc(Stacks stacks) throws SQLException {
+        try (Connection connection = stacks.dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("insert into goal (name) values (?)")) {
+
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                stmt.setString(1, "jdbc goal " + i);
+                stmt.addBatch();
+            }
+
+            return stmt.executeBatch();
+        }
+    }
+
+    @Benchmark
+    public Long r2dbcSpi(Stacks stacks) {
+        return stacks.crudOperations
+                .insertAll("insert into goal (name) values ($1)",
+                        Flux.range(0, BATCH_SIZE).map(i -> new Object[]{"spi goal " + i}))
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long r2dbcClient(Stacks stacks) {
+        return stacks.r2dbc
+                .withHandle(handle -> {
+                    Update update = handle.createUpdate("insert into goal (name) values ($1)");
+
+                    for (int i = 0; i < BATCH_SIZE; i++) {
+                        if (i > 0) {
+                            update.add();
+                        }
+                        update.bind("$1", "client goal " + i);
+                    }
+
+                    return update.execute();
+                })
+                .count()
+                .block();
+    }
+}
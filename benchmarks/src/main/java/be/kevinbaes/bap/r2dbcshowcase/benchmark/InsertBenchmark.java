@@ -0,0 +1,34 @@
+package be.kevinbaes.bap.r2dbcshowcase.benchmark;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Insert a single goal.
+ */
+public class InsertBenchmark {
+
+    @Benchmark
+    public int jdbc(Stacks stacks) throws SQLException {
+        try (Connection connection = stacks.dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("insert into goal (name) values (?)")) {
+            stmt.setString(1, "jdbc goal");
+
+            return stmt.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public Goal r2dbcSpi(Stacks stacks) {
+        return stacks.spiRepository.save(new Goal(0, "spi goal")).block();
+    }
+
+    @Benchmark
+    public Integer r2dbcClient(Stacks stacks) {
+        return stacks.clientRepository.insert(new Goal(0, "client goal")).blockLast();
+    }
+}
@@ -0,0 +1,43 @@
+package be.kevinbaes.bap.r2dbcshowcase.benchmark;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Find a single goal by a random existing id.
+ */
+public class LookupBenchmark {
+
+    @Benchmark
+    public Goal jdbc(Stacks stacks) throws SQLException {
+        try (Connection connection = stacks.dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("select id, name from goal where id = ?")) {
+            stmt.setInt(1, randomId(stacks));
+
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                resultSet.next();
+                return new Goal(resultSet.getInt(1), resultSet.getString(2));
+            }
+        }
+    }
+
+    @Benchmark
+    public Goal r2dbcSpi(Stacks stacks) {
+        return stacks.spiRepository.findById(randomId(stacks)).block();
+    }
+
+    @Benchmark
+    public Goal r2dbcClient(Stacks stacks) {
+        return stacks.clientRepository.findById(randomId(stacks)).block();
+    }
+
+    private static int randomId(Stacks stacks) {
+        return ThreadLocalRandom.current().nextInt(stacks.minId, stacks.maxId + 1);
+    }
+}
@@ -0,0 +1,69 @@
+package be.kevinbaes.bap.r2dbcshowcase.benchmark;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.domain.GoalBatch;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.GoalRowMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Map every row of the goal table to a Goal, Stacks#GOAL_COUNT rows per operation.
+ *
+ * The streamed variants fetch BATCH_SIZE rows at a time: r2dbcSpiStream emits a Goal per row,
+ * r2dbcSpiBatches the same rows as GoalBatches, read with a cursor instead of a Goal per row.
+ * CrudOperations#stream only uses a server side cursor on postgres. On the default H2 database every batch is a
+ * separate keyset query, so the streamed variants measure that fallback there, run with -p database=postgres
+ * to measure the cursor.
+ */
+public class ScanBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final GoalRowMapper ROW_MAPPER = new GoalRowMapper();
+
+    @Benchmark
+    public void jdbc(Stacks stacks, Blackhole blackhole) throws SQLException {
+        try (Connection connection = stacks.dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("select id, name from goal");
+             ResultSet resultSet = stmt.executeQuery()) {
+
+            while (resultSet.next()) {
+                blackhole.consume(new Goal(resultSet.getInt(1), resultSet.getString(2)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void r2dbcSpi(Stacks stacks, Blackhole blackhole) {
+        stacks.spiRepository.findAll().doOnNext(blackhole::consume).blockLast();
+    }
+
+    @Benchmark
+    public void r2dbcClient(Stacks stacks, Blackhole blackhole) {
+        stacks.clientRepository.findAll().doOnNext(blackhole::consume).blockLast();
+    }
+
+    @Benchmark
+    public void r2dbcSpiStream(Stacks stacks, Blackhole blackhole) {
+        stacks.crudOperations.stream("select id, name from goal", "id", BATCH_SIZE, ROW_MAPPER)
+                .doOnNext(blackhole::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    public void r2dbcSpiBatches(Stacks stacks, Blackhole blackhole) {
+        stacks.spiRepository.findAllBatches(BATCH_SIZE)
+                .doOnNext(batch -> {
+                    GoalBatch.Cursor cursor = batch.cursor();
+                    while (cursor.next()) {
+                        blackhole.consume(cursor.getId());
+                        blackhole.consume(cursor.getNameLength());
+                    }
+                })
+                .blockLast();
+    }
+}
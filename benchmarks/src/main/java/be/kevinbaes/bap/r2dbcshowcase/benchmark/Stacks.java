@@ -0,0 +1,98 @@
+package be.kevinbaes.bap.r2dbcshowcase.benchmark;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.GoalBulkLoader;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.QueryUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.CrudOperations;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.GoalRepository;
+import io.r2dbc.client.R2dbc;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.postgresql.ds.PGConnectionPoolDataSource;
+import reactor.core.publisher.Flux;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The three ways to talk to the database, all on the same goal table:
+ * plain JDBC, the R2DBC SPI through CrudOperations and the r2dbc-client.
+ *
+ * Both the JDBC and R2DBC side use a connection pool, so the benchmarks measure queries and not handshakes.
+ * Runs on the in-memory H2 database by default, pass -p database=postgres to use the local postgres.
+ */
+@State(Scope.Benchmark)
+public class Stacks {
+
+    public static final int GOAL_COUNT = 10_000;
+
+    private static final String H2_JDBC_URL = "jdbc:h2:mem:goaltracker-database;DB_CLOSE_DELAY=-1";
+
+    @Param({"h2"})
+    public String database;
+
+    public JdbcConnectionPool dataSource;
+    public PooledConnectionProvider connectionProvider;
+    public CrudOperations crudOperations;
+    public GoalRepository spiRepository;
+    public R2dbc r2dbc;
+    public be.kevinbaes.bap.r2dbcshowcase.r2dbc.client.GoalRepository clientRepository;
+
+    public int minId;
+    public int maxId;
+
+    @Setup
+    public void setup() throws SQLException {
+        if ("postgres".equals(database)) {
+            PGConnectionPoolDataSource postgres = new PGConnectionPoolDataSource();
+            postgres.setServerName("127.0.0.1");
+            postgres.setPortNumber(5432);
+            postgres.setDatabaseName("postgres");
+            postgres.setUser("postgres");
+            postgres.setPassword("postgres");
+
+            dataSource = JdbcConnectionPool.create(postgres);
+            connectionProvider = ConnectionUtil.pooledConnectionProvider();
+        } else {
+            dataSource = JdbcConnectionPool.create(H2_JDBC_URL, "sa", "");
+            connectionProvider = ConnectionUtil.h2PooledConnectionProvider();
+        }
+
+        connectionProvider.warmUp().block();
+
+        QueryUtil queryUtil = new QueryUtil(connectionProvider);
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+
+        crudOperations = new CrudOperations(queryUtil);
+        spiRepository = new GoalRepository(crudOperations);
+        r2dbc = new R2dbc(connectionProvider);
+        clientRepository = new be.kevinbaes.bap.r2dbcshowcase.r2dbc.client.GoalRepository(r2dbc);
+
+        new GoalBulkLoader(connectionProvider)
+                .load(Flux.range(0, GOAL_COUNT).map(i -> new Goal(0, "goal" + i)))
+                .block();
+
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet ids = stmt.executeQuery("select min(id), max(id) from goal")) {
+            ids.next();
+            minId = ids.getInt(1);
+            maxId = ids.getInt(2);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectionProvider.close();
+        dataSource.dispose();
+    }
+}
@@ -0,0 +1,284 @@
+package be.kevinbaes.bap.r2dbcshowcase.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A chunk of goals stored by column instead of as Goal objects: the ids in an int[] and all names UTF-8 encoded
+ * in one byte[], with the offset of every name in an int[]. A batch of n goals is a handful of arrays instead of
+ * n Goals, n Strings and their n character arrays.
+ *
+ * Read it by row index or with a cursor:
+ * <pre>
+ * GoalBatch.Cursor cursor = batch.cursor();
+ * while (cursor.next()) {
+ *     total += cursor.getId();
+ * }
+ * </pre>
+ *
+ * getName creates a String, getNameBytes with getNameOffset and getNameLength read the encoded name in place.
+ * A batch is immutable once it is built, the arrays it returns must not be modified.
+ */
+public final class GoalBatch {
+
+    // initialized before EMPTY, building EMPTY reads it
+    private static final byte[] NO_NAMES = new byte[0];
+
+    public static final GoalBatch EMPTY = new Builder(0).build();
+
+    private final int size;
+    private final int[] ids;
+    private final byte[] names;
+    private final int[] nameOffsets;
+    private final BitSet nullNames;
+
+    private GoalBatch(int size, int[] ids, byte[] names, int[] nameOffsets, BitSet nullNames) {
+        this.size = size;
+        this.ids = ids;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.nullNames = nullNames;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int row) {
+        checkRow(row);
+        return ids[row];
+    }
+
+    public String getName(int row) {
+        checkRow(row);
+        return isNameNull(row) ? null : new String(names, nameOffsets[row], getNameLength(row), StandardCharsets.UTF_8);
+    }
+
+    public boolean isNameNull(int row) {
+        checkRow(row);
+        return nullNames != null && nullNames.get(row);
+    }
+
+    /**
+     * start of the name of the row in getNameBytes
+     */
+    public int getNameOffset(int row) {
+        checkRow(row);
+        return nameOffsets[row];
+    }
+
+    /**
+     * length of the UTF-8 encoded name in bytes, 0 for a null name
+     */
+    public int getNameLength(int row) {
+        checkRow(row);
+        return nameOffsets[row + 1] - nameOffsets[row];
+    }
+
+    /**
+     * the id column, only the first size() values belong to the batch
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * all names, UTF-8 encoded one after the other
+     */
+    public byte[] getNameBytes() {
+        return names;
+    }
+
+    public Goal toGoal(int row) {
+        return new Goal(getId(row), getName(row));
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of a batch of " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GoalBatch{" +
+                "size=" + size +
+                ", nameBytes=" + nameOffsets[size] +
+                '}';
+    }
+
+    /**
+     * Walks the rows of the batch, call next() before reading the first row.
+     */
+    public final class Cursor {
+        private int row = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * @return false when there are no more rows
+         */
+        public boolean next() {
+            if (row < size) {
+                row++;
+            }
+
+            return row < size;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getId() {
+            return GoalBatch.this.getId(row);
+        }
+
+        public String getName() {
+            return GoalBatch.this.getName(row);
+        }
+
+        public boolean isNameNull() {
+            return GoalBatch.this.isNameNull(row);
+        }
+
+        public int getNameOffset() {
+            return GoalBatch.this.getNameOffset(row);
+        }
+
+        public int getNameLength() {
+            return GoalBatch.this.getNameLength(row);
+        }
+    }
+
+    /**
+     * Appends goals to new arrays, the name buffer grows as needed. A builder can be reused after build().
+     */
+    public static final class Builder {
+        private static final int MIN_NAME_BUFFER = 256;
+        // some VMs reserve header words in an array
+        private static final int MAX_NAME_BUFFER = Integer.MAX_VALUE - 8;
+
+        private final int capacity;
+        private int size;
+        private int[] ids;
+        private byte[] names;
+        private int[] nameOffsets;
+        private BitSet nullNames;
+
+        /**
+         * @param capacity maximum number of goals in a batch
+         */
+        public Builder(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("capacity must be at least 0, was " + capacity);
+            }
+
+            this.capacity = capacity;
+            reset();
+        }
+
+        public Builder add(int id, String name) {
+            if (isFull()) {
+                throw new IllegalStateException("batch is full, capacity " + capacity);
+            }
+
+            int offset = nameOffsets[size];
+            ids[size] = id;
+
+            if (name == null) {
+                if (nullNames == null) {
+                    nullNames = new BitSet(capacity);
+                }
+                nullNames.set(size);
+            } else {
+                offset = encode(name, offset);
+            }
+
+            size++;
+            nameOffsets[size] = offset;
+
+            return this;
+        }
+
+        public boolean isFull() {
+            return size == capacity;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * the goals added since the last build, the builder starts a new batch
+         */
+        public GoalBatch build() {
+            GoalBatch batch = new GoalBatch(size, ids, names, nameOffsets, nullNames);
+            reset();
+
+            return batch;
+        }
+
+        private void reset() {
+            size = 0;
+            ids = new int[capacity];
+            // allocated on the first name, a multiple of the capacity could overflow or be far too large
+            names = NO_NAMES;
+            nameOffsets = new int[capacity + 1];
+            nullNames = null;
+        }
+
+        /**
+         * UTF-8 encode straight into the name buffer, String#getBytes would allocate an array per name
+         */
+        private int encode(String name, int offset) {
+            int length = name.length();
+            ensureCapacity(offset + length * 3L);
+
+            byte[] buffer = names;
+            for (int i = 0; i < length; i++) {
+                char c = name.charAt(i);
+
+                if (c < 0x80) {
+                    buffer[offset++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[offset++] = (byte) (0xc0 | (c >> 6));
+                    buffer[offset++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(name.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, name.charAt(++i));
+                    buffer[offset++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[offset++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate, replaced like String#getBytes does
+                    buffer[offset++] = (byte) '?';
+                } else {
+                    buffer[offset++] = (byte) (0xe0 | (c >> 12));
+                    buffer[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buffer[offset++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+
+            return offset;
+        }
+
+        private void ensureCapacity(long required) {
+            if (required <= names.length) {
+                return;
+            }
+            if (required > MAX_NAME_BUFFER) {
+                throw new IllegalStateException("names of a batch don't fit in " + MAX_NAME_BUFFER + " bytes");
+            }
+
+            long grown = Math.max(MIN_NAME_BUFFER, names.length * 2L);
+            names = Arrays.copyOf(names, (int) Math.min(MAX_NAME_BUFFER, Math.max(required, grown)));
+        }
+    }
+}
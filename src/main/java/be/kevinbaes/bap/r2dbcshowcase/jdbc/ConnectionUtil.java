@@ -1,5 +1,8 @@
 package be.kevinbaes.bap.r2dbcshowcase.jdbc;
 
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.postgresql.ds.PGConnectionPoolDataSource;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -17,4 +20,29 @@ public class ConnectionUtil {
                     connectionProps);
     }
 
+    /**
+     * Pooled DataSource for the same local postgres database, at most maxConnections connections
+     */
+    public static JdbcConnectionPool postgresDataSource(int maxConnections) {
+        PGConnectionPoolDataSource postgres = new PGConnectionPoolDataSource();
+        postgres.setServerName("127.0.0.1");
+        postgres.setPortNumber(5432);
+        postgres.setDatabaseName("postgres");
+        postgres.setUser("postgres");
+        postgres.setPassword("postgres");
+
+        JdbcConnectionPool pool = JdbcConnectionPool.create(postgres);
+        pool.setMaxConnections(maxConnections);
+        return pool;
+    }
+
+    /**
+     * Pooled DataSource for the in-memory H2 database that r2dbc.ConnectionUtil#H2ConnectionFactory uses
+     */
+    public static JdbcConnectionPool h2DataSource(int maxConnections) {
+        JdbcConnectionPool pool = JdbcConnectionPool.create("jdbc:h2:mem:goaltracker-database;DB_CLOSE_DELAY=-1", "sa", "");
+        pool.setMaxConnections(maxConnections);
+        return pool;
+    }
+
 }
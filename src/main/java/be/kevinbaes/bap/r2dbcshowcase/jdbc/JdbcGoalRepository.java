@@ -0,0 +1,283 @@
+package be.kevinbaes.bap.r2dbcshowcase.jdbc;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.R2dbcRepository;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The same repository as the SPI GoalRepository, but with blocking JDBC calls on a pooled DataSource, so the
+ * reactive and the blocking driver can be compared with the same code on top (e.g. the load test).
+ *
+ * Every call borrows a connection from the DataSource and runs on a dedicated scheduler, never on the caller's
+ * thread. On a runtime with virtual threads every call gets its own virtual thread, otherwise they share a fixed
+ * pool of platform threads. Either way the number of concurrent queries is bounded by the DataSource pool.
+ *
+ * Results are read completely before they are emitted, findAll is not meant for tables that don't fit in memory.
+ */
+public class JdbcGoalRepository implements R2dbcRepository<Goal, Integer> {
+
+    /**
+     * number of goals per IN list or per transaction in saveAll
+     */
+    public static final int BATCH_SIZE = 100;
+
+    private final DataSource dataSource;
+    private final Scheduler scheduler;
+
+    /**
+     * @param dataSource preferably a connection pool, see ConnectionUtil#h2DataSource
+     * @param maxThreads platform threads for the blocking calls when there are no virtual threads, use the pool size
+     */
+    public JdbcGoalRepository(DataSource dataSource, int maxThreads) {
+        this(dataSource, blockingScheduler(maxThreads));
+    }
+
+    public JdbcGoalRepository(DataSource dataSource, Scheduler scheduler) {
+        this.dataSource = dataSource;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Scheduler on virtual threads (Executors#newVirtualThreadPerTaskExecutor, looked up by reflection so this
+     * still compiles for Java 11), or on a fixed pool of maxThreads daemon threads when they aren't available.
+     */
+    public static Scheduler blockingScheduler(int maxThreads) {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Schedulers.fromExecutorService((ExecutorService) virtualThreads.invoke(null));
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // older runtime, or virtual threads are a preview feature that isn't enabled
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(maxThreads, runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        return Schedulers.fromExecutorService(threads);
+    }
+
+    @Override
+    public Flux<Goal> findAll() {
+        return execute(connection -> query(connection, "select id, name from goal"))
+                .flatMapIterable(goals -> goals);
+    }
+
+    @Override
+    public Mono<Goal> findById(Integer id) {
+        return execute(connection -> {
+            List<Goal> goals = query(connection, "select id, name from goal where id = ?", id);
+
+            return goals.isEmpty() ? null : goals.get(0);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * One IN query per chunk of BATCH_SIZE ids.
+     */
+    @Override
+    public Flux<Goal> findAllById(Publisher<Integer> ids) {
+        return Flux.from(ids)
+                .buffer(BATCH_SIZE)
+                .concatMap(chunk -> execute(connection ->
+                        query(connection, "select id, name from goal where id in (" + placeholders(chunk.size()) + ")", chunk.toArray())
+                ), 1)
+                .flatMapIterable(goals -> goals);
+    }
+
+    /**
+     * {@inheritDoc}
+     * A goal with id 0 is inserted with a generated id. Any other goal is updated, or inserted with a generated id
+     * when no goal with that id exists, like the SPI GoalRepository.
+     */
+    @Override
+    public Mono<Goal> save(Goal element) {
+        return execute(connection -> {
+            if (element.getId() != 0 && update(connection, "update goal set name = ? where id = ?", element.getGoal(), element.getId()) > 0) {
+                return new Goal(element.getId(), element.getGoal());
+            }
+
+            return insert(connection, element);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * Every chunk of BATCH_SIZE goals is saved in one transaction, the updates of a chunk as one JDBC batch.
+     * The saved goals are emitted in the order of the elements.
+     */
+    @Override
+    public Flux<Goal> saveAll(Flux<Goal> elements) {
+        return elements
+                .buffer(BATCH_SIZE)
+                .concatMap(chunk -> execute(connection -> inTransaction(connection, () -> saveChunk(connection, chunk))), 1)
+                .flatMapIterable(goals -> goals);
+    }
+
+    private List<Goal> saveChunk(Connection connection, List<Goal> chunk) throws SQLException {
+        List<Goal> existing = new ArrayList<>();
+        for (Goal goal : chunk) {
+            if (goal.getId() != 0) {
+                existing.add(goal);
+            }
+        }
+
+        int[] rowsUpdated = new int[0];
+        if (!existing.isEmpty()) {
+            try (PreparedStatement update = connection.prepareStatement("update goal set name = ? where id = ?")) {
+                for (Goal goal : existing) {
+                    update.setString(1, goal.getGoal());
+                    update.setInt(2, goal.getId());
+                    update.addBatch();
+                }
+
+                rowsUpdated = update.executeBatch();
+            }
+        }
+
+        List<Goal> saved = new ArrayList<>(chunk.size());
+        int e = 0;
+
+        for (Goal goal : chunk) {
+            boolean updated = goal.getId() != 0 && rowsUpdated[e++] != 0;
+            saved.add(updated ? new Goal(goal.getId(), goal.getGoal()) : insert(connection, goal));
+        }
+
+        return saved;
+    }
+
+    @Override
+    public Mono<Integer> delete(Integer id) {
+        return execute(connection -> update(connection, "delete from goal where id = ?", id));
+    }
+
+    @Override
+    public Mono<Integer> deleteAllById(Publisher<Integer> ids) {
+        return Flux.from(ids)
+                .buffer(BATCH_SIZE)
+                .concatMap(chunk -> execute(connection ->
+                        update(connection, "delete from goal where id in (" + placeholders(chunk.size()) + ")", chunk.toArray())
+                ), 1)
+                .reduce(0, Integer::sum);
+    }
+
+    @Override
+    public Mono<Integer> deleteAll() {
+        return execute(connection -> update(connection, "delete from goal"));
+    }
+
+    /**
+     * run the blocking work on the scheduler with a connection from the DataSource
+     */
+    private <R> Mono<R> execute(ConnectionFunction<R> work) {
+        return Mono.fromCallable(() -> {
+            try (Connection connection = dataSource.getConnection()) {
+                return work.apply(connection);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    private <R> R inTransaction(Connection connection, SqlSupplier<R> work) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+
+        try {
+            R result = work.get();
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private Goal insert(Connection connection, Goal goal) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("insert into goal (name) values (?)", Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, goal.getGoal());
+            stmt.executeUpdate();
+
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("no id generated for " + goal);
+                }
+                return new Goal(keys.getInt(1), goal.getGoal());
+            }
+        }
+    }
+
+    private static List<Goal> query(Connection connection, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = prepare(connection, sql, params);
+             ResultSet resultSet = stmt.executeQuery()) {
+            List<Goal> goals = new ArrayList<>();
+
+            while (resultSet.next()) {
+                goals.add(new Goal(resultSet.getInt(1), resultSet.getString(2)));
+            }
+
+            return goals;
+        }
+    }
+
+    private static int update(Connection connection, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = prepare(connection, sql, params)) {
+            return stmt.executeUpdate();
+        }
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(sql);
+
+        try {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+
+        return stmt;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+
+        return placeholders.toString();
+    }
+
+    @FunctionalInterface
+    private interface ConnectionFunction<R> {
+        R apply(Connection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface SqlSupplier<R> {
+        R get() throws SQLException;
+    }
+}
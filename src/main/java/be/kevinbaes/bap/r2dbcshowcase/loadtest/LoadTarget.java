@@ -0,0 +1,43 @@
+package be.kevinbaes.bap.r2dbcshowcase.loadtest;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.R2dbcRepository;
+import reactor.core.publisher.Mono;
+
+/**
+ * The operations the load test runs, so the repositories don't need a common interface.
+ */
+public interface LoadTarget {
+
+    Mono<?> read(int id);
+
+    Mono<?> write(Goal goal);
+
+    static LoadTarget of(R2dbcRepository<Goal, Integer> repository) {
+        return new LoadTarget() {
+            @Override
+            public Mono<?> read(int id) {
+                return repository.findById(id);
+            }
+
+            @Override
+            public Mono<?> write(Goal goal) {
+                return repository.save(goal);
+            }
+        };
+    }
+
+    static LoadTarget of(be.kevinbaes.bap.r2dbcshowcase.r2dbc.client.GoalRepository repository) {
+        return new LoadTarget() {
+            @Override
+            public Mono<?> read(int id) {
+                return repository.findById(id);
+            }
+
+            @Override
+            public Mono<?> write(Goal goal) {
+                return repository.update(goal).then();
+            }
+        };
+    }
+}
@@ -0,0 +1,280 @@
+package be.kevinbaes.bap.r2dbcshowcase.loadtest;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.jdbc.JdbcGoalRepository;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.GoalBulkLoader;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.QueryUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.GoalRepository;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.h2.jdbcx.JdbcConnectionPool;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load test for the goal repositories, answers "how many operations per second at what latency".
+ *
+ * Operations are started at a fixed rate, not when the previous one finishes, and their latency is measured from
+ * the moment they should have started. When the repository can't keep up, operations wait for one of the
+ * concurrency slots and that wait counts in their latency, instead of silently lowering the load (coordinated omission).
+ * Operations are subscribed on a scheduler with concurrency threads, so a synchronous driver (H2) doesn't run them
+ * one at a time on the generator thread.
+ *
+ * Arguments are key=value pairs, all optional:
+ * <pre>
+ * target=spi|client|jdbc  repository to test, default spi
+ * database=h2|postgres    default h2 (in-memory)
+ * rate=1000               operations started per second
+ * concurrency=64          maximum operations in flight
+ * reads=0.8               fraction of the operations that are findById, the rest are saves of existing goals
+ * duration=60             seconds
+ * interval=5              seconds between reports
+ * goals=10000             goals in the table
+ * </pre>
+ *
+ * Every interval prints the latency percentiles of reads and writes, the throughput and the pool saturation.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) {
+        new LoadTest(parse(args)).run();
+    }
+
+    private final String target;
+    private final String database;
+    private final int rate;
+    private final int concurrency;
+    private final double reads;
+    private final Duration duration;
+    private final Duration interval;
+    private final int goalCount;
+
+    private final Recorder readLatency = new Recorder(3);
+    private final Recorder writeLatency = new Recorder(3);
+    private final Histogram totalReads = new Histogram(3);
+    private final Histogram totalWrites = new Histogram(3);
+    private final LongAdder errors = new LongAdder();
+
+    private PooledConnectionProvider provider;
+    private JdbcConnectionPool dataSource;
+    private Scheduler scheduler;
+    private int[] ids;
+    private long elapsedNanos;
+
+    LoadTest(Map<String, String> options) {
+        this.target = options.getOrDefault("target", "spi");
+        this.database = options.getOrDefault("database", "h2");
+        this.rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        this.reads = Double.parseDouble(options.getOrDefault("reads", "0.8"));
+        this.duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60")));
+        this.interval = Duration.ofSeconds(Long.parseLong(options.getOrDefault("interval", "5")));
+        this.goalCount = Integer.parseInt(options.getOrDefault("goals", "10000"));
+    }
+
+    private void run() {
+        provider = database.equals("postgres")
+                ? ConnectionUtil.pooledConnectionProvider()
+                : ConnectionUtil.h2PooledConnectionProvider();
+        provider.warmUp().block();
+
+        ids = loadGoals();
+        LoadTarget loadTarget = createTarget();
+
+        System.out.println("running " + target + " on " + database + ": " + rate + " ops/s, concurrency " + concurrency
+                + ", " + (int) (reads * 100) + "% reads for " + duration.getSeconds() + "s");
+
+        Thread reporter = new Thread(this::report, "load-test-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        scheduler = operationScheduler();
+        generate(loadTarget);
+        scheduler.dispose();
+
+        reporter.interrupt();
+        printSummary();
+
+        if (dataSource != null) {
+            dataSource.dispose();
+        }
+        provider.close();
+    }
+
+    private int[] loadGoals() {
+        QueryUtil queryUtil = new QueryUtil(provider);
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+
+        new GoalBulkLoader(provider)
+                .load(Flux.range(0, goalCount).map(i -> new Goal(0, "goal" + i)))
+                .block();
+
+        List<Integer> loaded = new GoalRepository(provider).findAll().map(Goal::getId).collectList().block();
+
+        return loaded.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private LoadTarget createTarget() {
+        switch (target) {
+            case "spi":
+                return LoadTarget.of(new GoalRepository(provider));
+            case "client":
+                return LoadTarget.of(new be.kevinbaes.bap.r2dbcshowcase.r2dbc.client.GoalRepository(provider));
+            case "jdbc":
+                // same number of connections as the R2DBC pool, one thread per connection
+                dataSource = database.equals("postgres")
+                        ? be.kevinbaes.bap.r2dbcshowcase.jdbc.ConnectionUtil.postgresDataSource(provider.getMaxSize())
+                        : be.kevinbaes.bap.r2dbcshowcase.jdbc.ConnectionUtil.h2DataSource(provider.getMaxSize());
+                return LoadTarget.of(new JdbcGoalRepository(dataSource, provider.getMaxSize()));
+            default:
+                throw new IllegalArgumentException("unknown target " + target + ", use spi, client or jdbc");
+        }
+    }
+
+    /**
+     * One thread per concurrency slot, the operations may block (H2, JDBC)
+     */
+    private Scheduler operationScheduler() {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return Schedulers.fromExecutorService(Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "load-test-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Start operation i at start + i / rate. The semaphore limits the operations in flight, when it blocks the
+     * following operations start late, but their latency still counts from their intended start.
+     */
+    private void generate(LoadTarget loadTarget) {
+        final Semaphore slots = new Semaphore(concurrency);
+        final long start = System.nanoTime();
+        final long end = start + duration.toNanos();
+        final double nanosPerOperation = 1_000_000_000d / rate;
+
+        for (long i = 0; ; i++) {
+            final long intendedStart = start + (long) (i * nanosPerOperation);
+            if (intendedStart - end >= 0) {
+                break;
+            }
+
+            long wait;
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            slots.acquireUninterruptibly();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int id = ids[random.nextInt(ids.length)];
+            boolean read = random.nextDouble() < reads;
+            Recorder latency = read ? readLatency : writeLatency;
+
+            (read ? loadTarget.read(id) : loadTarget.write(new Goal(id, "goal" + id + "-" + i)))
+                    .subscribeOn(scheduler)
+                    .doOnError(e -> errors.increment())
+                    .doFinally(signal -> {
+                        latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart));
+                        slots.release();
+                    })
+                    .subscribe(value -> { }, error -> { });
+        }
+
+        // wait for the operations in flight
+        slots.acquireUninterruptibly(concurrency);
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void report() {
+        long last = System.nanoTime();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(interval.toNanos());
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            printInterval(now - last);
+            last = now;
+        }
+    }
+
+    private synchronized void printInterval(long elapsedNanos) {
+        Histogram readInterval = readLatency.getIntervalHistogram();
+        Histogram writeInterval = writeLatency.getIntervalHistogram();
+        totalReads.add(readInterval);
+        totalWrites.add(writeInterval);
+
+        double seconds = elapsedNanos / 1_000_000_000d;
+        long operations = readInterval.getTotalCount() + writeInterval.getTotalCount();
+
+        System.out.println(String.format("%.0f ops/s, errors %d, pool %d/%d acquired, %d pending",
+                operations / seconds, errors.sum(), provider.acquiredSize(), provider.getMaxSize(), provider.pendingAcquireSize()));
+        System.out.println("  reads:  " + percentiles(readInterval));
+        System.out.println("  writes: " + percentiles(writeInterval));
+    }
+
+    private synchronized void printSummary() {
+        totalReads.add(readLatency.getIntervalHistogram());
+        totalWrites.add(writeLatency.getIntervalHistogram());
+
+        long operations = totalReads.getTotalCount() + totalWrites.getTotalCount();
+
+        double seconds = elapsedNanos / 1_000_000_000d;
+
+        System.out.println(String.format("total: %d operations in %.1fs, %.0f ops/s, %d errors",
+                operations, seconds, operations / seconds, errors.sum()));
+        System.out.println("  reads:  " + percentiles(totalReads));
+        System.out.println("  writes: " + percentiles(totalWrites));
+    }
+
+    /**
+     * latencies in microseconds
+     */
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "no operations";
+        }
+
+        return String.format("count %d, p50 %d, p90 %d, p99 %d, p99.9 %d, max %d (us)",
+                histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9),
+                histogram.getMaxValue());
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        return options;
+    }
+}
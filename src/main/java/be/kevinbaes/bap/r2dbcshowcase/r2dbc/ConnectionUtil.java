@@ -1,5 +1,7 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc;
 
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy.QueryMetricsListener;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy.SlowQueryListener;
 import io.r2dbc.h2.H2ConnectionConfiguration;
 import io.r2dbc.h2.H2ConnectionFactory;
 import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
@@ -68,8 +70,17 @@ public class ConnectionUtil {
     }
 
     public static ConnectionFactory H2ConnectionFactory() {
+        return H2ConnectionFactory("goaltracker-database");
+    }
+
+    /**
+     * Separate in-memory H2 database, e.g. to stand in for a primary and a replica.
+     * DB_CLOSE_DELAY=-1 keeps the database and its tables alive when the last connection is closed, a pool may
+     * close all of its idle connections.
+     */
+    public static ConnectionFactory H2ConnectionFactory(String database) {
         return new H2ConnectionFactory(H2ConnectionConfiguration.builder()
-                .inMemory("goaltracker-database")
+                .url("mem:" + database + ";DB_CLOSE_DELAY=-1")
                 .build());
     }
 
@@ -91,6 +102,34 @@ public class ConnectionUtil {
                 .build();
     }
 
+    /**
+     * Wrap an existing connectionfactory with a ProxyConnectionFactory that records metrics instead of printing
+     * every query, see QueryMetricsListener
+     * @param connectionFactory original connectionfactory
+     * @param metricsListener collects latency, row and error metrics per statement
+     * @return ProxyConnectionFactory
+     */
+    public static ConnectionFactory metricsConnectionFactory(ConnectionFactory connectionFactory, QueryMetricsListener metricsListener) {
+        return ProxyConnectionFactory
+                .builder(connectionFactory)
+                .listener(metricsListener)
+                .build();
+    }
+
+    /**
+     * Wrap an existing connectionfactory with a ProxyConnectionFactory that only logs slow and sampled statements,
+     * see SlowQueryListener
+     * @param connectionFactory original connectionfactory
+     * @param slowQueryListener records the statements slower than its threshold
+     * @return ProxyConnectionFactory
+     */
+    public static ConnectionFactory slowQueryConnectionFactory(ConnectionFactory connectionFactory, SlowQueryListener slowQueryListener) {
+        return ProxyConnectionFactory
+                .builder(connectionFactory)
+                .listener(slowQueryListener)
+                .build();
+    }
+
     public static ConnectionFactory pooledConnectionFactory() {
         return ConnectionFactories.get(ConnectionFactoryOptions.builder()
                 .option(DRIVER, "pool")
@@ -103,4 +142,26 @@ public class ConnectionUtil {
                 .build());
     }
 
+    /**
+     * Pool in front of the programmatic postgres factory, share one instance between all repositories
+     */
+    public static PooledConnectionProvider pooledConnectionProvider() {
+        return PooledConnectionProvider.builder(postgresConnectionFactory())
+                .initialSize(2)
+                .maxSize(10)
+                .validationQuery("select 1")
+                .build();
+    }
+
+    /**
+     * Same pool configuration as pooledConnectionProvider but for the in-memory H2 database, useful to
+     * try things out without a running postgres. The in-memory database lives until the JVM exits.
+     */
+    public static PooledConnectionProvider h2PooledConnectionProvider() {
+        return PooledConnectionProvider.builder(H2ConnectionFactory())
+                .initialSize(1)
+                .maxSize(10)
+                .build();
+    }
+
 }
@@ -0,0 +1,57 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Keyset (seek) pagination: every page is "where key > last key of the previous page order by key limit n",
+ * so the database can start from the index instead of skipping rows like OFFSET does, and page 1000 costs the same as page 1.
+ *
+ * Only needs a query per page, so it works the same for the SPI and the r2dbc-client repositories.
+ */
+public class KeysetPages<T> {
+
+    private final int pageSize;
+    private final Function<T, Integer> keyExtractor;
+    private final BiFunction<Integer, Integer, Flux<T>> pageQuery;
+
+    /**
+     * @param pageSize number of elements per page
+     * @param keyExtractor gets the key of an element, the page query has to order on this key
+     * @param pageQuery runs the query for (after key, page size)
+     */
+    public KeysetPages(int pageSize, Function<T, Integer> keyExtractor, BiFunction<Integer, Integer, Flux<T>> pageQuery) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("page size must be at least 1, was " + pageSize);
+        }
+
+        this.pageSize = pageSize;
+        this.keyExtractor = keyExtractor;
+        this.pageQuery = pageQuery;
+    }
+
+    /**
+     * All pages after the given key. A page is only queried when it is requested, and never while the previous
+     * page query is still running.
+     */
+    public Flux<List<T>> after(int key) {
+        return page(key)
+                // a page smaller than the page size was the last one
+                .expand(page -> page.size() < pageSize ? Mono.empty() : page(keyExtractor.apply(page.get(page.size() - 1))))
+                .filter(page -> !page.isEmpty());
+    }
+
+    /**
+     * expand subscribes to the next page as soon as the previous one is emitted, so the query waits for the first
+     * request instead of running on subscribe
+     */
+    private Mono<List<T>> page(int afterKey) {
+        return Mono.create(sink -> sink.onRequest(n -> sink.onCancel(
+                pageQuery.apply(afterKey, pageSize).collectList().subscribe(sink::success, sink::error)
+        )));
+    }
+}
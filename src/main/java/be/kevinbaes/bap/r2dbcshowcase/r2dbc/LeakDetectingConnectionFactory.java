@@ -0,0 +1,302 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Finds connections that are never closed, before they exhaust the pool.
+ *
+ * Every connection is tracked from the moment it is acquired until close() completes, together with the stack
+ * trace of the code that acquired it. A connection that is held longer than the threshold is reported once with
+ * that stack trace. A connection that is garbage collected without being closed is reported as a leak and closed,
+ * which gives a pooled connection back to the pool. Acquire and hold times go into histograms.
+ *
+ * <pre>
+ * LeakDetectingConnectionFactory connectionFactory = new LeakDetectingConnectionFactory(provider, Duration.ofSeconds(10));
+ * ...
+ * connectionFactory.registerMBean("goals");
+ * ...
+ * System.out.println(connectionFactory);
+ * </pre>
+ */
+public class LeakDetectingConnectionFactory implements ConnectionFactory, LeakDetectingConnectionFactoryMXBean, AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final ConnectionFactory connectionFactory;
+    private final long thresholdNanos;
+    private final boolean captureStacks;
+    private final Consumer<String> reporter;
+    private final Disposable check;
+
+    private final Map<Long, Tracked> open = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final Histogram acquireMicros = new ConcurrentHistogram(3);
+    private final Histogram holdMicros = new ConcurrentHistogram(3);
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder longHeld = new LongAdder();
+    private final LongAdder garbageCollected = new LongAdder();
+    private volatile ObjectName objectName;
+
+    /**
+     * Capture stacks and report on System.err.
+     */
+    public LeakDetectingConnectionFactory(ConnectionFactory connectionFactory, Duration threshold) {
+        this(connectionFactory, threshold, true, System.err::println);
+    }
+
+    /**
+     * @param threshold connections held longer than this are reported
+     * @param captureStacks remember where every connection was acquired, costs a stack trace per acquire
+     * @param reporter receives the report of every long held or leaked connection
+     */
+    public LeakDetectingConnectionFactory(ConnectionFactory connectionFactory, Duration threshold, boolean captureStacks,
+                                          Consumer<String> reporter) {
+        this.connectionFactory = connectionFactory;
+        this.thresholdNanos = threshold.toNanos();
+        this.captureStacks = captureStacks;
+        this.reporter = reporter;
+
+        long period = Math.max(1, thresholdNanos / 2);
+        this.check = Schedulers.single().schedulePeriodically(this::reportLongHeld, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Mono<Connection> create() {
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            final Throwable acquiredAt = captureStacks ? new Throwable("connection acquired here") : null;
+
+            return Mono.from(connectionFactory.create())
+                    .map(connection -> track(connection, start, acquiredAt));
+        });
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return connectionFactory.getMetadata();
+    }
+
+    private Connection track(Connection connection, long acquireStart, Throwable acquiredAt) {
+        final long now = System.nanoTime();
+        final Tracked tracked = new Tracked(ids.incrementAndGet(), connection, now, acquiredAt);
+
+        acquired.increment();
+        acquireMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(now - acquireStart));
+        open.put(tracked.id, tracked);
+
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                return Mono.from(connection.close()).doFinally(signal -> closed(tracked));
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+
+        Connection proxy = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+
+        // the cleanup action may not reference the proxy, or the proxy never becomes unreachable
+        CLEANER.register(proxy, () -> garbageCollected(tracked));
+
+        return proxy;
+    }
+
+    private void closed(Tracked tracked) {
+        if (tracked.closed.compareAndSet(false, true)) {
+            open.remove(tracked.id);
+            holdMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - tracked.acquiredNanos));
+        }
+    }
+
+    private void garbageCollected(Tracked tracked) {
+        if (!tracked.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        open.remove(tracked.id);
+        garbageCollected.increment();
+        reporter.accept(describe(tracked, "garbage collected without close(), closing it now"));
+
+        Mono.from(tracked.connection.close()).subscribe(v -> { }, e -> { });
+    }
+
+    private void reportLongHeld() {
+        long now = System.nanoTime();
+
+        for (Tracked tracked : open.values()) {
+            if (!tracked.reported && now - tracked.acquiredNanos > thresholdNanos) {
+                tracked.reported = true;
+                longHeld.increment();
+                reporter.accept(describe(tracked, "still open"));
+            }
+        }
+    }
+
+    private String describe(Tracked tracked, String problem) {
+        long heldMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tracked.acquiredNanos);
+        String message = "connection " + tracked.id + " " + problem + " after " + heldMillis + " ms";
+
+        if (tracked.acquiredAt == null) {
+            return message;
+        }
+
+        StringWriter stack = new StringWriter();
+        tracked.acquiredAt.printStackTrace(new PrintWriter(stack));
+
+        return message + "\n" + stack;
+    }
+
+    /**
+     * connections acquired and not closed yet
+     */
+    @Override
+    public int getOpenConnections() {
+        return open.size();
+    }
+
+    /**
+     * a description and acquire stack of every open connection, oldest first
+     */
+    @Override
+    public List<String> describeOpenConnections() {
+        List<Tracked> tracked = new ArrayList<>(open.values());
+        tracked.sort((a, b) -> Long.compare(a.acquiredNanos, b.acquiredNanos));
+
+        List<String> descriptions = new ArrayList<>(tracked.size());
+        for (Tracked connection : tracked) {
+            descriptions.add(describe(connection, "open"));
+        }
+
+        return descriptions;
+    }
+
+    @Override
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * connections that were held longer than the threshold
+     */
+    @Override
+    public long getLongHeld() {
+        return longHeld.sum();
+    }
+
+    /**
+     * connections that were garbage collected without close()
+     */
+    @Override
+    public long getGarbageCollected() {
+        return garbageCollected.sum();
+    }
+
+    /**
+     * @param percentile 0 - 100
+     */
+    @Override
+    public long acquireTimeMicros(double percentile) {
+        return acquireMicros.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * time between acquiring a connection and close() completing
+     * @param percentile 0 - 100
+     */
+    @Override
+    public long holdTimeMicros(double percentile) {
+        return holdMicros.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Register this factory as an MXBean under be.kevinbaes.bap.r2dbcshowcase:type=LeakDetectingConnectionFactory,name=...
+     * close() unregisters it again.
+     */
+    public void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("be.kevinbaes.bap.r2dbcshowcase:type=LeakDetectingConnectionFactory,name=" + name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register leak detection " + name, e);
+        }
+    }
+
+    /**
+     * stops checking for long held connections and unregisters the MXBean, the connections themselves are still tracked
+     */
+    @Override
+    public void close() {
+        check.dispose();
+
+        ObjectName registered = objectName;
+        if (registered != null) {
+            objectName = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+            } catch (JMException e) {
+                reporter.accept("could not unregister " + registered + ": " + e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LeakDetectingConnectionFactory{" +
+                "open=" + getOpenConnections() +
+                ", acquired=" + getAcquired() +
+                ", longHeld=" + getLongHeld() +
+                ", garbageCollected=" + getGarbageCollected() +
+                ", acquireP99=" + acquireTimeMicros(99) + "us" +
+                ", holdP50=" + holdTimeMicros(50) + "us" +
+                ", holdP99=" + holdTimeMicros(99) + "us" +
+                '}';
+    }
+
+    private static class Tracked {
+        private final long id;
+        private final Connection connection;
+        private final long acquiredNanos;
+        private final Throwable acquiredAt;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean reported;
+
+        private Tracked(long id, Connection connection, long acquiredNanos, Throwable acquiredAt) {
+            this.id = id;
+            this.connection = connection;
+            this.acquiredNanos = acquiredNanos;
+            this.acquiredAt = acquiredAt;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc;
+
+import java.util.List;
+
+/**
+ * JMX view on the LeakDetectingConnectionFactory, times are in microseconds.
+ */
+public interface LeakDetectingConnectionFactoryMXBean {
+
+    int getOpenConnections();
+
+    /**
+     * a description and acquire stack of every open connection, oldest first
+     */
+    List<String> describeOpenConnections();
+
+    long getAcquired();
+
+    long getLongHeld();
+
+    long getGarbageCollected();
+
+    long acquireTimeMicros(double percentile);
+
+    long holdTimeMicros(double percentile);
+}
@@ -0,0 +1,197 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.pool.PoolMetrics;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * A single pooled ConnectionFactory that can be shared by QueryUtil, CrudOperations and the repositories.
+ *
+ * Every create() hands out a connection from an r2dbc-pool ConnectionPool instead of opening a new physical
+ * connection, close() on that connection gives it back to the pool. Because this class is a ConnectionFactory
+ * itself, everything that already takes a ConnectionFactory can use it without changes.
+ *
+ * Use the builder to configure it:
+ * <pre>
+ * PooledConnectionProvider provider = PooledConnectionProvider.builder(ConnectionUtil.H2ConnectionFactory())
+ *         .initialSize(2)
+ *         .maxSize(10)
+ *         .maxIdleTime(Duration.ofMinutes(5))
+ *         .acquireTimeout(Duration.ofSeconds(2))
+ *         .build();
+ *
+ * provider.warmUp().block();
+ * </pre>
+ */
+public class PooledConnectionProvider implements ConnectionFactory {
+
+    private final ConnectionFactory connectionFactory;
+    private final ConnectionPool pool;
+    private final int initialSize;
+    private final int maxSize;
+
+    private PooledConnectionProvider(Builder builder) {
+        this.connectionFactory = builder.connectionFactory;
+        this.initialSize = builder.initialSize;
+        this.maxSize = builder.maxSize;
+
+        ConnectionPoolConfiguration.Builder configuration = ConnectionPoolConfiguration.builder(connectionFactory)
+                .initialSize(builder.initialSize)
+                .maxSize(builder.maxSize)
+                .maxIdleTime(builder.maxIdleTime)
+                .maxAcquireTime(builder.acquireTimeout);
+
+        if (builder.validationQuery != null) {
+            configuration.validationQuery(builder.validationQuery);
+        }
+
+        this.pool = new ConnectionPool(configuration.build());
+    }
+
+    public static Builder builder(ConnectionFactory connectionFactory) {
+        return new Builder(connectionFactory);
+    }
+
+    /**
+     * Acquire a connection from the pool, fails with a TimeoutException when no connection
+     * becomes available within the acquire timeout. The pool applies the timeout itself and cancels the pending acquire.
+     */
+    @Override
+    public Mono<Connection> create() {
+        return pool.create();
+    }
+
+    /**
+     * The metadata of the wrapped driver, so callers can still see which database they are talking to.
+     */
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return connectionFactory.getMetadata();
+    }
+
+    /**
+     * Open initialSize connections at the same time and give them back to the pool, so the first
+     * requests don't pay the connection handshake.
+     */
+    public Mono<Void> warmUp() {
+        return Flux.range(0, initialSize)
+                .flatMap(i -> create())
+                .collectList()
+                .flatMapMany(Flux::fromIterable)
+                .flatMap(Connection::close)
+                .then();
+    }
+
+    /**
+     * number of connections currently handed out to callers
+     */
+    public int acquiredSize() {
+        return pool.getMetrics().map(PoolMetrics::acquiredSize).orElse(0);
+    }
+
+    /**
+     * number of open connections waiting in the pool
+     */
+    public int idleSize() {
+        return pool.getMetrics().map(PoolMetrics::idleSize).orElse(0);
+    }
+
+    /**
+     * number of callers waiting for a connection
+     */
+    public int pendingAcquireSize() {
+        return pool.getMetrics().map(PoolMetrics::pendingAcquireSize).orElse(0);
+    }
+
+    public int getInitialSize() {
+        return initialSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * close all pooled connections
+     */
+    public void close() {
+        pool.dispose();
+    }
+
+    @Override
+    public String toString() {
+        return "PooledConnectionProvider{" +
+                "acquired=" + acquiredSize() +
+                ", idle=" + idleSize() +
+                ", pending=" + pendingAcquireSize() +
+                ", maxSize=" + maxSize +
+                '}';
+    }
+
+    public static class Builder {
+
+        private final ConnectionFactory connectionFactory;
+        private int initialSize = 1;
+        private int maxSize = 10;
+        private Duration maxIdleTime = Duration.ofMinutes(30);
+        private Duration acquireTimeout = Duration.ofSeconds(5);
+        private String validationQuery;
+
+        private Builder(ConnectionFactory connectionFactory) {
+            this.connectionFactory = connectionFactory;
+        }
+
+        /**
+         * Connections opened up front and by warmUp(). This is not a minimum: r2dbc-pool closes idle connections
+         * after maxIdleTime, also the initial ones, so the pool can shrink to no connections at all.
+         */
+        public Builder initialSize(int initialSize) {
+            this.initialSize = initialSize;
+            return this;
+        }
+
+        public Builder maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * idle connections are closed after this time
+         */
+        public Builder maxIdleTime(Duration maxIdleTime) {
+            this.maxIdleTime = maxIdleTime;
+            return this;
+        }
+
+        /**
+         * how long create() waits for a free connection before the pool gives up, passed to the pool as maxAcquireTime
+         */
+        public Builder acquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+            return this;
+        }
+
+        /**
+         * optional query to check a connection before it is handed out, e.g. "select 1"
+         */
+        public Builder validationQuery(String validationQuery) {
+            this.validationQuery = validationQuery;
+            return this;
+        }
+
+        public PooledConnectionProvider build() {
+            if (initialSize < 0 || maxSize < 1 || initialSize > maxSize) {
+                throw new IllegalArgumentException("invalid pool size: initial " + initialSize + ", max " + maxSize);
+            }
+
+            return new PooledConnectionProvider(this);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit and miss counters for the prepared statement cache of the postgres driver.
+ *
+ * The postgres driver prepares every statement with $n parameters once per physical connection and keeps it
+ * prepared for as long as the connection lives, the SQL text is the key. This factory sees the same statements:
+ * the first one with a given SQL text on a connection is a miss, the ones after it are hits. Statements without
+ * parameters run as simple queries and are not counted.
+ *
+ * Wrap the driver's factory, below the pool, so every physical connection is tracked once:
+ * <pre>
+ * PreparedStatementStats statementStats = new PreparedStatementStats(ConnectionUtil.postgresConnectionFactory());
+ * PooledConnectionProvider provider = PooledConnectionProvider.builder(statementStats).build();
+ * </pre>
+ *
+ * The driver's cache has no size limit and can't be configured, so nothing is ever evicted from it.
+ */
+public class PreparedStatementStats implements ConnectionFactory {
+
+    private final ConnectionFactory connectionFactory;
+
+    private final Map<Long, Set<String>> preparedPerConnection = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public PreparedStatementStats(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public Mono<Connection> create() {
+        return Mono.from(connectionFactory.create()).map(this::track);
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return connectionFactory.getMetadata();
+    }
+
+    private Connection track(Connection connection) {
+        final long id = ids.incrementAndGet();
+        final Set<String> prepared = ConcurrentHashMap.newKeySet();
+        preparedPerConnection.put(id, prepared);
+
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("createStatement") && args.length == 1) {
+                record(prepared, (String) args[0]);
+            } else if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                // the server drops the prepared statements with the connection
+                return Mono.from(connection.close()).doFinally(signal -> preparedPerConnection.remove(id));
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+
+    private void record(Set<String> prepared, String sql) {
+        if (!sql.contains("$")) {
+            return;
+        }
+
+        if (prepared.add(sql)) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+    }
+
+    /**
+     * statements that reused a statement prepared earlier on the same connection
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * statements that were prepared on their connection for the first time
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * prepared statements on all open connections
+     */
+    public int getPreparedStatements() {
+        int count = 0;
+        for (Set<String> prepared : preparedPerConnection.values()) {
+            count += prepared.size();
+        }
+
+        return count;
+    }
+
+    public int getOpenConnections() {
+        return preparedPerConnection.size();
+    }
+
+    /**
+     * fraction of the statements with parameters that reused a prepared statement, 0 when there were none
+     */
+    public double hitRatio() {
+        long hitCount = getHits();
+        long statements = hitCount + getMisses();
+
+        return statements == 0 ? 0 : (double) hitCount / statements;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedStatementStats{" +
+                "connections=" + getOpenConnections() +
+                ", prepared=" + getPreparedStatements() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", hitRatio=" + String.format("%.2f", hitRatio()) +
+                '}';
+    }
+}
@@ -0,0 +1,211 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read/write splitting: connections for read-only work come from one of the replicas, all other connections
+ * come from the primary.
+ *
+ * A ConnectionFactory can't see what a connection will be used for, so the caller marks read-only work in the
+ * Reactor context with readOnly(). CrudOperations#select does this, so findAll and findById of the SPI
+ * GoalRepository read from a replica while saves, deletes and QueryUtil#executeInTransaction use the primary.
+ * Replicas lag behind the primary, wrap a read in primary() when it has to see a write that was just done.
+ *
+ * <pre>
+ * RoutingConnectionFactory routing = new RoutingConnectionFactory(primary, Arrays.asList(replica1, replica2), Balancing.LEAST_IN_FLIGHT);
+ * goalRepository.findById(id).subscriberContext(RoutingConnectionFactory.primary());
+ * </pre>
+ */
+public class RoutingConnectionFactory implements ConnectionFactory {
+
+    private static final String READ_ONLY = RoutingConnectionFactory.class.getName() + ".READ_ONLY";
+    private static final String PRIMARY = RoutingConnectionFactory.class.getName() + ".PRIMARY";
+
+    public enum Balancing {
+        ROUND_ROBIN,
+        /**
+         * the replica with the fewest open connections created by this factory
+         */
+        LEAST_IN_FLIGHT
+    }
+
+    private final Target primary;
+    private final List<Target> replicas;
+    private final Balancing balancing;
+    private final AtomicLong nextReplica = new AtomicLong();
+
+    /**
+     * @param primary receives the writes, transactions and reads that need to see their own writes
+     * @param replicas receive the read-only work, preferably every replica is a PooledConnectionProvider
+     */
+    public RoutingConnectionFactory(ConnectionFactory primary, List<ConnectionFactory> replicas, Balancing balancing) {
+        this.primary = new Target(primary);
+        this.balancing = balancing;
+
+        List<Target> targets = new ArrayList<>(replicas.size());
+        for (ConnectionFactory replica : replicas) {
+            targets.add(new Target(replica));
+        }
+        this.replicas = Collections.unmodifiableList(targets);
+    }
+
+    /**
+     * Context that routes the connections created for a subscription to a replica.
+     */
+    public static Context readOnly() {
+        return Context.of(READ_ONLY, true);
+    }
+
+    /**
+     * Context that routes the connections created for a subscription to the primary, also for read-only work.
+     */
+    public static Context primary() {
+        return Context.of(PRIMARY, true);
+    }
+
+    @Override
+    public Mono<Connection> create() {
+        return Mono.subscriberContext().flatMap(context -> {
+            boolean readOnly = context.getOrDefault(READ_ONLY, false);
+            boolean forcePrimary = context.getOrDefault(PRIMARY, false);
+
+            return readOnly && !forcePrimary && !replicas.isEmpty()
+                    ? replica().create()
+                    : primary.create();
+        });
+    }
+
+    private Target replica() {
+        if (balancing == Balancing.ROUND_ROBIN) {
+            return replicas.get((int) (nextReplica.getAndIncrement() % replicas.size()));
+        }
+
+        // start at a rotating offset so replicas with the same count share the load
+        int offset = (int) (nextReplica.getAndIncrement() % replicas.size());
+        Target least = null;
+        for (int i = 0; i < replicas.size(); i++) {
+            Target replica = replicas.get((offset + i) % replicas.size());
+            if (least == null || replica.inFlight.get() < least.inFlight.get()) {
+                least = replica;
+            }
+        }
+
+        return least;
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return primary.connectionFactory.getMetadata();
+    }
+
+    /**
+     * connections created on the primary
+     */
+    public long getPrimaryConnections() {
+        return primary.created.sum();
+    }
+
+    /**
+     * connections created on every replica, in the order of the replicas
+     */
+    public List<Long> getReplicaConnections() {
+        List<Long> created = new ArrayList<>(replicas.size());
+        for (Target replica : replicas) {
+            created.add(replica.created.sum());
+        }
+
+        return created;
+    }
+
+    /**
+     * connections of every replica that aren't closed yet, in the order of the replicas
+     */
+    public List<Integer> getReplicaInFlight() {
+        List<Integer> inFlight = new ArrayList<>(replicas.size());
+        for (Target replica : replicas) {
+            inFlight.add(replica.inFlight.get());
+        }
+
+        return inFlight;
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingConnectionFactory{" +
+                "balancing=" + balancing +
+                ", primaryConnections=" + getPrimaryConnections() +
+                ", replicaConnections=" + getReplicaConnections() +
+                ", replicaInFlight=" + getReplicaInFlight() +
+                '}';
+    }
+
+    private static class Target {
+        private final ConnectionFactory connectionFactory;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder created = new LongAdder();
+
+        private Target(ConnectionFactory connectionFactory) {
+            this.connectionFactory = connectionFactory;
+        }
+
+        private Mono<Connection> create() {
+            return Mono.from(connectionFactory.create()).map(connection -> {
+                created.increment();
+                inFlight.incrementAndGet();
+
+                return track(connection);
+            });
+        }
+
+        /**
+         * Connection proxy that decrements inFlight once, when close() completes.
+         * A dynamic proxy keeps this independent of the methods a driver's Connection has.
+         */
+        private Connection track(Connection connection) {
+            AtomicBoolean closed = new AtomicBoolean();
+
+            InvocationHandler handler = (proxy, method, args) -> {
+                if (isClose(method)) {
+                    return Mono.from(connection.close()).doFinally(signal -> {
+                        if (closed.compareAndSet(false, true)) {
+                            inFlight.decrementAndGet();
+                        }
+                    });
+                }
+
+                return invoke(connection, method, args);
+            };
+
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+        }
+
+        private static boolean isClose(Method method) {
+            return method.getName().equals("close") && method.getParameterCount() == 0;
+        }
+
+        private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -1,39 +1,65 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc.client;
 
 import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.KeysetPages;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.GoalRowMapper;
 import io.r2dbc.client.R2dbc;
+import io.r2dbc.spi.ConnectionFactory;
 import io.r2dbc.spi.Result;
+import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public class GoalRepository {
     private final R2dbc r2dbc;
+    private final GoalRowMapper rowMapper = new GoalRowMapper();
 
     public GoalRepository(R2dbc r2dbc) {
         this.r2dbc = r2dbc;
     }
 
+    /**
+     * @param connectionFactory preferably a shared PooledConnectionProvider
+     */
+    public GoalRepository(ConnectionFactory connectionFactory) {
+        this(new R2dbc(connectionFactory));
+    }
+
     public Flux<Goal> findAll() {
         return r2dbc.withHandle(handle ->
                 handle.select("select * from goal")
-                        .mapRow((row, rowMetadata) -> {
-                            Integer id = row.get("id", Integer.class);
-                            String name = row.get("name", String.class);
-                            return new Goal(id, name);
-                        }));
+                        .mapResult(this::mapGoals));
+    }
+
+    /**
+     * One page of goals ordered by id, starting after the given id.
+     */
+    public Flux<Goal> findPage(int afterId, int limit) {
+        return r2dbc.withHandle(handle ->
+                handle.select("select * from goal where id > $1 order by id limit $2", afterId, limit)
+                        .mapResult(this::mapGoals));
+    }
+
+    /**
+     * All goals in pages of pageSize, the next page is only queried when it is requested.
+     */
+    public Flux<List<Goal>> findAllPages(int pageSize) {
+        return new KeysetPages<>(pageSize, Goal::getId, this::findPage).after(Integer.MIN_VALUE);
     }
 
     public Mono<Goal> findById(long id) {
         return r2dbc.withHandle(handle ->
                 handle.select("select * from goal where id = $1", id)
-                        .mapRow((row, rowMetadata) -> {
-                            Integer foundId = row.get("id", Integer.class);
-                            String name = row.get("name", String.class);
-                            return new Goal(foundId, name);
-                        }))
+                        .mapResult(this::mapGoals))
                         .next();
     }
 
+    private Publisher<Goal> mapGoals(Result result) {
+        return result.map(rowMapper.forResult());
+    }
+
     public Flux<Integer> insert(Goal goal) {
         return r2dbc.withHandle(handle ->
                 handle.createQuery("INSERT INTO goal (name) VALUES ($1)")
@@ -0,0 +1,26 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the metrics of every statement in a map.
+ */
+public class InMemoryQueryMetricsRegistry implements QueryMetricsRegistry {
+
+    private final Map<String, StatementMetrics> statements = new ConcurrentHashMap<>();
+
+    @Override
+    public StatementMetrics forStatement(String normalizedSql) {
+        StatementMetrics metrics = statements.get(normalizedSql);
+
+        return metrics != null ? metrics : statements.computeIfAbsent(normalizedSql, StatementMetrics::new);
+    }
+
+    @Override
+    public Collection<StatementMetrics> getStatements() {
+        return Collections.unmodifiableCollection(statements.values());
+    }
+}
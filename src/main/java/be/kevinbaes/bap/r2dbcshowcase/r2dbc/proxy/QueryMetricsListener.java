@@ -0,0 +1,167 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.listener.ProxyExecutionListener;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Proxy listener that records latency, rows and errors per normalized SQL statement and the number of
+ * statements currently executing.
+ *
+ * Normalizing replaces literals with ? so "select * from goal where id = 1" and "... id = 2" end up in the same
+ * histogram. The result is cached per SQL text, so a statement that was seen before is recorded without allocating.
+ *
+ * <pre>
+ * QueryMetricsListener metrics = new QueryMetricsListener();
+ * ConnectionFactory connectionFactory = ProxyConnectionFactory.builder(original).listener(metrics).build();
+ * metrics.registerMBean("goals");
+ * </pre>
+ */
+public class QueryMetricsListener implements ProxyExecutionListener, QueryMetricsMXBean {
+
+    /**
+     * SQL with inlined values is different every time, stop caching the normalized form when there are this many
+     */
+    private static final int MAX_CACHED_SQL = 1000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w$])-?\\d+(?:\\.\\d+)?");
+    private static final Pattern REPEATED_PLACEHOLDERS = Pattern.compile("(?:\\?|\\$\\d+)(?:\\s*,\\s*(?:\\?|\\$\\d+))+");
+    private static final Pattern REPEATED_ROWS = Pattern.compile("\\((?:\\?|\\$\\d+)\\)(?:\\s*,\\s*\\((?:\\?|\\$\\d+)\\))+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final QueryMetricsRegistry registry;
+    private final Map<String, StatementMetrics> metricsBySql = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public QueryMetricsListener() {
+        this(new InMemoryQueryMetricsRegistry());
+    }
+
+    public QueryMetricsListener(QueryMetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void beforeQuery(QueryExecutionInfo execInfo) {
+        inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void afterQuery(QueryExecutionInfo execInfo) {
+        inFlight.decrementAndGet();
+        executions.increment();
+
+        boolean success = execInfo.getThrowable() == null;
+        if (!success) {
+            errors.increment();
+        }
+
+        metrics(execInfo).recordExecution(execInfo.getExecuteDuration().toNanos(), success);
+    }
+
+    /**
+     * called for every row that is mapped
+     */
+    @Override
+    public void eachQueryResult(QueryExecutionInfo execInfo) {
+        metrics(execInfo).recordRow();
+    }
+
+    public QueryMetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Register this listener as an MXBean under be.kevinbaes.bap.r2dbcshowcase:type=QueryMetrics,name=...
+     */
+    public void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("be.kevinbaes.bap.r2dbcshowcase:type=QueryMetrics,name=" + name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register query metrics " + name, e);
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public String[] getStatements() {
+        return registry.getStatements().stream()
+                .map(StatementMetrics::toString)
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public long p99Micros(String normalizedSql) {
+        return registry.forStatement(normalizedSql).getLatency().percentile(99) / 1000;
+    }
+
+    private StatementMetrics metrics(QueryExecutionInfo execInfo) {
+        String sql = sql(execInfo.getQueries());
+        StatementMetrics metrics = metricsBySql.get(sql);
+
+        if (metrics == null) {
+            metrics = registry.forStatement(normalize(sql));
+
+            if (metricsBySql.size() < MAX_CACHED_SQL) {
+                metricsBySql.put(sql, metrics);
+            }
+        }
+
+        return metrics;
+    }
+
+    /**
+     * a batch is recorded as all of its statements together
+     */
+    private static String sql(List<QueryInfo> queries) {
+        if (queries.size() == 1) {
+            return queries.get(0).getQuery();
+        }
+
+        StringBuilder sql = new StringBuilder();
+        for (QueryInfo query : queries) {
+            sql.append(sql.length() == 0 ? "" : "; ").append(query.getQuery());
+        }
+
+        return sql.toString();
+    }
+
+    static String normalize(String sql) {
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = REPEATED_PLACEHOLDERS.matcher(normalized).replaceAll("?, ...");
+        normalized = REPEATED_ROWS.matcher(normalized).replaceAll("(?), ...");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ");
+
+        return normalized.trim().toLowerCase();
+    }
+}
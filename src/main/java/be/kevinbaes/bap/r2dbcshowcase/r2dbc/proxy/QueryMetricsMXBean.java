@@ -0,0 +1,20 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+/**
+ * JMX view on the QueryMetricsListener, latencies are in microseconds.
+ */
+public interface QueryMetricsMXBean {
+
+    int getInFlight();
+
+    long getExecutions();
+
+    long getErrors();
+
+    /**
+     * one line per normalized statement with its executions, rows, errors and p50/p99/p999
+     */
+    String[] getStatements();
+
+    long p99Micros(String normalizedSql);
+}
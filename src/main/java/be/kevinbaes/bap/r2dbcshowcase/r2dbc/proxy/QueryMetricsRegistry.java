@@ -0,0 +1,17 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+import java.util.Collection;
+
+/**
+ * Where the QueryMetricsListener keeps its metrics, implement this to hand them to another metrics library.
+ */
+public interface QueryMetricsRegistry {
+
+    /**
+     * Get or create the metrics for a normalized statement, called for every execution so it should not allocate
+     * once the statement is known.
+     */
+    StatementMetrics forStatement(String normalizedSql);
+
+    Collection<StatementMetrics> getStatements();
+}
@@ -0,0 +1,80 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.QueryUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.CrudOperations;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs a fast and a slow select on an in-memory H2 database through a SlowQueryListener and prints what it records.
+ *
+ * H2 has no sleep function, so the slow select calls Thread.sleep for every row through an alias. Only the slow
+ * select is recorded. The run fails when the recorded row count is not the number of rows the select returned,
+ * see SlowQueryRecord#getRows.
+ */
+public class SlowQueries {
+
+    private static final Duration THRESHOLD = Duration.ofMillis(100);
+    private static final int GOAL_COUNT = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        new SlowQueries().run();
+    }
+
+    private void run() throws InterruptedException {
+        Queue<SlowQueryRecord> records = new ConcurrentLinkedQueue<>();
+        SlowQueryListener slowQueries = new SlowQueryListener(THRESHOLD, 0, 100, record -> {
+            System.out.println(record);
+            records.add(record);
+        });
+
+        ConnectionFactory connectionFactory = ConnectionUtil.slowQueryConnectionFactory(
+                ConnectionUtil.H2ConnectionFactory("slow-queries"), slowQueries);
+        QueryUtil queryUtil = new QueryUtil(connectionFactory);
+        CrudOperations crudOperations = new CrudOperations(queryUtil);
+
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+        crudOperations.update("create alias if not exists sleep for \"java.lang.Thread.sleep\"").block();
+
+        Flux.range(0, GOAL_COUNT)
+                .concatMap(i -> crudOperations.insert("insert into goal (name) values ($1)", "goal" + i))
+                .blockLast();
+
+        List<Goal> fast = crudOperations.select("select id, name from goal", this::goal).collectList().block();
+        List<Goal> slow = crudOperations
+                .select("select id, name from goal where sleep($1) is null", this::goal, THRESHOLD.toMillis())
+                .collectList()
+                .block();
+        System.out.println("fast select: " + fast.size() + " goals, slow select: " + slow.size() + " goals");
+
+        // writes what is still queued
+        slowQueries.close();
+        System.out.println("recorded " + slowQueries.getRecorded() + ", dropped " + slowQueries.getDropped());
+
+        SlowQueryRecord record = records.stream()
+                .filter(r -> r.getSql().contains("sleep"))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("the slow select was not recorded"));
+
+        if (records.size() != 1) {
+            throw new IllegalStateException("expected only the slow select, recorded " + records);
+        }
+        if (record.getRows() != slow.size()) {
+            throw new IllegalStateException("recorded " + record.getRows() + " rows, the select returned " + slow.size());
+        }
+    }
+
+    private Goal goal(Row row, RowMetadata rowMetadata) {
+        return new Goal(row.get("id", Integer.class), row.get("name", String.class));
+    }
+}
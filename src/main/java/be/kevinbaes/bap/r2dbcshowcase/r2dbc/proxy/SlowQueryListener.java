@@ -0,0 +1,151 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+import io.r2dbc.proxy.core.QueryExecutionInfo;
+import io.r2dbc.proxy.core.QueryInfo;
+import io.r2dbc.proxy.listener.ProxyExecutionListener;
+import io.r2dbc.proxy.support.QueryExecutionInfoFormatter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Proxy listener that only records statements slower than a threshold, plus a random sample of the others.
+ *
+ * Recording happens on the thread that executed the query, which is usually a Netty event loop, so the listener
+ * never writes anything itself: records go to a bounded lock free queue and a background thread hands them to the
+ * writer. When the queue is full records are dropped and counted instead of blocking.
+ *
+ * <pre>
+ * SlowQueryListener slowQueries = new SlowQueryListener(Duration.ofMillis(100), 0.001, 10_000, System.out::println);
+ * ConnectionFactory connectionFactory = ProxyConnectionFactory.builder(original).listener(slowQueries).build();
+ * </pre>
+ */
+public class SlowQueryListener implements ProxyExecutionListener, AutoCloseable {
+
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final int capacity;
+    private final Consumer<SlowQueryRecord> writer;
+
+    private final Queue<SlowQueryRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final QueryExecutionInfoFormatter bindingsFormatter = new QueryExecutionInfoFormatter().showBindings();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param threshold statements that take at least this long are always recorded
+     * @param sampleRate fraction of the faster statements to record as well, between 0 and 1
+     * @param capacity maximum number of records waiting to be written
+     * @param writer called on the background thread for every record
+     */
+    public SlowQueryListener(Duration threshold, double sampleRate, int capacity, Consumer<SlowQueryRecord> writer) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("sample rate must be between 0 and 1, was " + sampleRate);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+        }
+
+        this.thresholdNanos = threshold.toNanos();
+        this.sampleRate = sampleRate;
+        this.capacity = capacity;
+        this.writer = writer;
+
+        this.writerThread = new Thread(this::drain, "slow-query-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void afterQuery(QueryExecutionInfo execInfo) {
+        Duration elapsed = execInfo.getExecuteDuration();
+        boolean slow = elapsed.toNanos() >= thresholdNanos;
+
+        // fast path for the normal statement: nothing is allocated
+        if (!slow && (sampleRate == 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+
+        queue.offer(new SlowQueryRecord(
+                Instant.now(),
+                execInfo.getQueries().stream().map(QueryInfo::getQuery).collect(Collectors.joining("; ")),
+                bindingsFormatter.format(execInfo),
+                elapsed,
+                execInfo.getCurrentResultCount(),
+                execInfo.getConnectionInfo().getConnectionId(),
+                !slow
+        ));
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            SlowQueryRecord record = queue.poll();
+
+            if (record == null) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+                continue;
+            }
+
+            queued.decrementAndGet();
+            recorded.increment();
+
+            try {
+                writer.accept(record);
+            } catch (RuntimeException e) {
+                // a broken writer should not stop the logging of the next records
+                System.err.println("could not write slow query: " + e);
+            }
+        }
+    }
+
+    /**
+     * records written so far
+     */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * records thrown away because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * records waiting for the writer
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * stop the writer thread after it wrote everything that is still queued
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        writerThread.join();
+    }
+}
@@ -0,0 +1,75 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * One statement recorded by the SlowQueryListener.
+ */
+public class SlowQueryRecord {
+
+    private final Instant executedAt;
+    private final String sql;
+    private final String bindings;
+    private final Duration elapsed;
+    private final int rows;
+    private final String connectionId;
+    private final boolean sampled;
+
+    SlowQueryRecord(Instant executedAt, String sql, String bindings, Duration elapsed, int rows, String connectionId, boolean sampled) {
+        this.executedAt = executedAt;
+        this.sql = sql;
+        this.bindings = bindings;
+        this.elapsed = elapsed;
+        this.rows = rows;
+        this.connectionId = connectionId;
+        this.sampled = sampled;
+    }
+
+    public Instant getExecutedAt() {
+        return executedAt;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getBindings() {
+        return bindings;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Rows mapped when r2dbc-proxy reported the query as done (QueryExecutionInfo#getCurrentResultCount).
+     * That is every row when the rows are mapped while the Results are emitted, as with H2 or a flatMap over
+     * Result#map. Rows mapped after the Result publisher completed are not counted, SlowQueries checks the count.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * true when the statement was below the threshold and only recorded as part of the sample
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    @Override
+    public String toString() {
+        return executedAt +
+                (sampled ? " [sampled]" : " [slow]") +
+                " " + elapsed.toMillis() + " ms" +
+                ", rows=" + rows +
+                ", connection=" + connectionId +
+                ", sql=" + sql +
+                ", " + bindings;
+    }
+}
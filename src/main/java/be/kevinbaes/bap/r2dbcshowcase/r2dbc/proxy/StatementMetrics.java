@@ -0,0 +1,57 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.proxy;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, rows and errors of one normalized SQL statement.
+ */
+public class StatementMetrics {
+
+    private final String sql;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public StatementMetrics(String sql) {
+        this.sql = sql;
+    }
+
+    void recordExecution(long nanos, boolean success) {
+        latency.record(nanos);
+
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    void recordRow() {
+        rows.increment();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getExecutions() {
+        return latency.count();
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: executions=%d, rows=%d, errors=%d, p50=%dus, p99=%dus, p999=%dus",
+                sql, getExecutions(), getRows(), getErrors(),
+                latency.percentile(50) / 1000, latency.percentile(99) / 1000, latency.percentile(99.9) / 1000);
+    }
+}
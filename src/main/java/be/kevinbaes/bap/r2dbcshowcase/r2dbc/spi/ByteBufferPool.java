@@ -0,0 +1,71 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reuses direct buffers of one size, so an export doesn't allocate a new buffer for every chunk it writes.
+ * Buffers of another size, and buffers released when maxPooled buffers are already pooled, are left to the GC.
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final LongAdder allocations = new LongAdder();
+
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+
+        if (buffer == null) {
+            allocations.increment();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect()) {
+            return;
+        }
+
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * buffers allocated because the pool was empty
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufferPool{" +
+                "bufferSize=" + bufferSize +
+                ", pooled=" + pooled.get() +
+                ", allocations=" + getAllocations() +
+                '}';
+    }
+}
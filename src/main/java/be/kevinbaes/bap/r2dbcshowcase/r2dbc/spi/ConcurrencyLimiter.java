@@ -0,0 +1,292 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of queries in flight and adapts that limit to the measured round trip time (gradient algorithm).
+ *
+ * A long term average of the round trip time is compared with the recent average. While they are about the same
+ * the database keeps up and the limit grows, when recent queries get slower the queries are queueing somewhere
+ * (pool, network, database) and the limit shrinks proportionally. Queries over the limit wait in a short queue,
+ * when the queue is full or they waited longer than maxWait they fail with a LimitExceededException instead of
+ * piling up on the connection pool.
+ *
+ * <pre>
+ * QueryUtil queryUtil = new QueryUtil(provider, new ConcurrencyLimiter());
+ * </pre>
+ */
+public class ConcurrencyLimiter {
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int CANCELLED = 2;
+
+    /**
+     * queries are allowed to be this much slower than the long term average before the limit shrinks
+     */
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int LONG_WINDOW = 500;
+    private static final int SHORT_WINDOW = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueueSize;
+    private final long maxWaitNanos;
+
+    private final Object lock = new Object();
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double longRttNanos;
+    private double shortRttNanos;
+
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public ConcurrencyLimiter() {
+        this(10, 1, 200, 100, Duration.ofMillis(50));
+    }
+
+    /**
+     * @param initialLimit queries allowed in flight before the first round trip times are measured
+     * @param minLimit the limit never drops below this
+     * @param maxLimit the limit never grows above this, no use going much higher than the pool size
+     * @param maxQueueSize queries that can wait for a slot, the rest is rejected immediately
+     * @param maxWait how long a query can wait for a slot
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueueSize, Duration maxWait) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must be 1 <= min <= initial <= max, were "
+                    + minLimit + ", " + initialLimit + ", " + maxLimit);
+        }
+
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    /**
+     * Subscribe to the work once there is a slot for it. The slot is released when the work terminates or
+     * is cancelled, only work that completes is used to measure the round trip time.
+     */
+    public <T> Flux<T> limit(Flux<T> work) {
+        return acquire().flatMapMany(permit -> work.doFinally(signal -> permit.release(signal == SignalType.ON_COMPLETE)));
+    }
+
+    private Mono<Permit> acquire() {
+        return Mono.create(this::acquire);
+    }
+
+    private void acquire(MonoSink<Permit> sink) {
+        Waiter waiter = null;
+        String rejection = null;
+
+        synchronized (lock) {
+            if (inFlight < (int) limit && queue.isEmpty()) {
+                inFlight++;
+            } else if (queue.size() < maxQueueSize) {
+                final Waiter queued = new Waiter(sink);
+                queued.timeout = Schedulers.parallel().schedule(() -> expire(queued), maxWaitNanos, TimeUnit.NANOSECONDS);
+                queue.add(queued);
+                waiter = queued;
+            } else {
+                rejection = describe("queue is full");
+            }
+        }
+
+        if (rejection != null) {
+            rejections.increment();
+            sink.error(new LimitExceededException(rejection));
+            return;
+        }
+
+        if (waiter == null) {
+            sink.success(new Permit());
+            return;
+        }
+
+        final Waiter queued = waiter;
+        sink.onCancel(() -> cancel(queued));
+    }
+
+    private void expire(Waiter waiter) {
+        String rejection;
+
+        synchronized (lock) {
+            if (!waiter.state.compareAndSet(WAITING, CANCELLED)) {
+                return;
+            }
+            queue.remove(waiter);
+            rejection = describe("waited longer than " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + "ms");
+        }
+
+        rejections.increment();
+        timeouts.increment();
+        waiter.sink.error(new LimitExceededException(rejection));
+    }
+
+    private void cancel(Waiter waiter) {
+        if (waiter.state.compareAndSet(WAITING, CANCELLED)) {
+            synchronized (lock) {
+                queue.remove(waiter);
+            }
+            waiter.timeout.dispose();
+        } else if (waiter.state.get() == GRANTED) {
+            // granted, but the permit never reached the subscriber
+            waiter.permit.release(false);
+        }
+    }
+
+    private void release(long rttNanos, boolean sample) {
+        List<Waiter> granted = new ArrayList<>();
+
+        synchronized (lock) {
+            if (sample) {
+                update(rttNanos);
+            }
+            inFlight--;
+
+            while (inFlight < (int) limit && !queue.isEmpty()) {
+                Waiter waiter = queue.poll();
+                waiter.permit = new Permit();
+                if (waiter.state.compareAndSet(WAITING, GRANTED)) {
+                    inFlight++;
+                    granted.add(waiter);
+                }
+            }
+        }
+
+        for (Waiter waiter : granted) {
+            waiter.timeout.dispose();
+            waiter.sink.success(waiter.permit);
+        }
+    }
+
+    /**
+     * called with the lock held, inFlight still counts the query that completed
+     */
+    private void update(long rttNanos) {
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            shortRttNanos = rttNanos;
+        } else {
+            longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+            shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+        }
+
+        // recent queries are much faster than the long term average, e.g. after a slow period, let it catch up
+        if (longRttNanos / shortRttNanos > 2) {
+            longRttNanos *= 0.95;
+        }
+
+        // most of the slots aren't used, the round trip times say nothing about a higher limit
+        if (inFlight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / shortRttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    }
+
+    private String describe(String reason) {
+        return "query rejected, " + reason + ": " + inFlight + " queries in flight, limit " + (int) limit
+                + ", " + queue.size() + " waiting";
+    }
+
+    public int getLimit() {
+        synchronized (lock) {
+            return (int) limit;
+        }
+    }
+
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public int getQueued() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * queries that failed with a LimitExceededException, because the queue was full or they waited too long
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * the part of the rejections that waited longer than maxWait
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "ConcurrencyLimiter{" +
+                    "limit=" + (int) limit +
+                    ", inFlight=" + inFlight +
+                    ", queued=" + queue.size() +
+                    ", rejections=" + getRejections() +
+                    ", timeouts=" + getTimeouts() +
+                    ", rtt=" + (long) shortRttNanos / 1000 + "us" +
+                    '}';
+        }
+    }
+
+    /**
+     * The query was not executed because the database is already at its concurrency limit, retry later.
+     */
+    public static class LimitExceededException extends RuntimeException {
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private class Permit {
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private void release(boolean sample) {
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release(Math.max(1, System.nanoTime() - start), sample);
+            }
+        }
+    }
+
+    private static class Waiter {
+        private final MonoSink<Permit> sink;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Disposable timeout;
+        private volatile Permit permit;
+
+        private Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+    }
+}
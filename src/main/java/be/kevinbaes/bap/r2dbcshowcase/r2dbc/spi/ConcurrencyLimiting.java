@@ -0,0 +1,52 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.ConcurrencyLimiter.LimitExceededException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The unbounded flatMap of Streaming#insertGoalsSeparateStatements with a ConcurrencyLimiter in QueryUtil.
+ *
+ * Without the limiter all inserts wait for one of the 10 pooled connections and every insert gets slower.
+ * With the limiter the inserts over the limit wait briefly and are then rejected, the accepted inserts keep
+ * their latency. Runs against the in-memory H2 database.
+ */
+public class ConcurrencyLimiting {
+
+    private static final int INSERTS = 20_000;
+
+    public static void main(String[] args) {
+        PooledConnectionProvider provider = ConnectionUtil.h2PooledConnectionProvider();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 50, 200, Duration.ofMillis(20));
+        QueryUtil queryUtil = new QueryUtil(provider, limiter);
+
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+
+        final AtomicLong inserted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final long start = System.currentTimeMillis();
+
+        Flux.range(1, INSERTS)
+                .flatMap(i -> queryUtil.executeStatement(conn ->
+                                conn.createStatement("insert into goal (name) values ($1)").bind("$1", "goal" + i).execute())
+                        .flatMap(result -> result.getRowsUpdated())
+                        .doOnComplete(inserted::incrementAndGet)
+                        .onErrorResume(LimitExceededException.class, e -> {
+                            rejected.incrementAndGet();
+                            return Mono.empty();
+                        }), INSERTS)
+                .blockLast();
+
+        System.out.println(inserted.get() + " inserted, " + rejected.get() + " rejected in "
+                + (System.currentTimeMillis() - start) + " ms");
+        System.out.println(limiter);
+
+        provider.close();
+    }
+}
@@ -0,0 +1,80 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.LeakDetectingConnectionFactory;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.LeakDetectingConnectionFactoryMXBean;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import io.r2dbc.spi.Connection;
+import reactor.core.publisher.Mono;
+
+import javax.management.JMX;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+/**
+ * Leaks a connection of the in-memory H2 pool on purpose and shows that the LeakDetectingConnectionFactory reports it:
+ * first as held longer than the threshold, then as garbage collected without close(), after which it is closed and
+ * back in the pool. The counts are read through the registered MXBean, like jconsole would.
+ */
+public class ConnectionLeak {
+
+    private static final Duration THRESHOLD = Duration.ofMillis(500);
+    private static final int GC_ATTEMPTS = 20;
+
+    public static void main(String[] args) throws Exception {
+        new ConnectionLeak().run();
+    }
+
+    private void run() throws Exception {
+        PooledConnectionProvider provider = ConnectionUtil.h2PooledConnectionProvider();
+        LeakDetectingConnectionFactory leakDetector = new LeakDetectingConnectionFactory(provider, THRESHOLD);
+        leakDetector.registerMBean("leak-demo");
+
+        LeakDetectingConnectionFactoryMXBean mxBean = JMX.newMXBeanProxy(
+                ManagementFactory.getPlatformMBeanServer(), objectName("leak-demo"), LeakDetectingConnectionFactoryMXBean.class);
+
+        // acquired and closed, not reported
+        Mono.from(leakDetector.create())
+                .delayUntil(Connection::close)
+                .block();
+
+        leakConnection(leakDetector);
+        System.out.println("leaked a connection, open: " + mxBean.getOpenConnections());
+
+        // the periodic check reports it as held too long
+        Thread.sleep(THRESHOLD.toMillis() * 2);
+        System.out.println("long held: " + mxBean.getLongHeld());
+
+        // the leaked proxy is unreachable, the Cleaner reports and closes it once it is collected
+        for (int i = 0; i < GC_ATTEMPTS && mxBean.getGarbageCollected() == 0; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        System.out.println("garbage collected: " + mxBean.getGarbageCollected() + ", open: " + mxBean.getOpenConnections());
+        System.out.println(leakDetector);
+        boolean reported = mxBean.getLongHeld() == 1 && mxBean.getGarbageCollected() == 1;
+
+        // unregisters the MXBean
+        leakDetector.close();
+        provider.close();
+
+        if (!reported) {
+            throw new IllegalStateException("the leaked connection was not reported: " + leakDetector);
+        }
+    }
+
+    /**
+     * acquire a connection and forget it, it is unreachable once this method returns
+     */
+    private void leakConnection(LeakDetectingConnectionFactory connectionFactory) {
+        Connection connection = Mono.from(connectionFactory.create()).block();
+        System.out.println("acquired " + connection + " and never closing it");
+    }
+
+    private ObjectName objectName(String name) throws MalformedObjectNameException {
+        return new ObjectName("be.kevinbaes.bap.r2dbcshowcase:type=LeakDetectingConnectionFactory,name=" + name);
+    }
+}
@@ -1,20 +1,45 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
 
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
 import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
-import io.r2dbc.spi.Connection;
-import io.r2dbc.spi.ConnectionFactory;
-import reactor.core.publisher.Mono;
-
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.CrudOperations;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.GoalRepository;
+import reactor.core.publisher.Flux;
+
+/**
+ * One pool shared by QueryUtil, CrudOperations and both repositories.
+ * Runs against the in-memory H2 database so no postgres is needed.
+ */
 public class ConnectionPool {
 
     public static void main(String[] args) {
 
-        ConnectionFactory connectionFactory = ConnectionUtil.pooledConnectionFactory();
+        PooledConnectionProvider provider = ConnectionUtil.h2PooledConnectionProvider();
+
+        // open the minimum amount of connections before the first query
+        provider.warmUp().block();
+        System.out.println("after warm up: " + provider);
+
+        QueryUtil queryUtil = new QueryUtil(provider);
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
 
-        Mono<Connection> connectionMono = Mono.from(connectionFactory.create());
+        CrudOperations crudOperations = new CrudOperations(queryUtil);
+        GoalRepository spiRepository = new GoalRepository(crudOperations);
+        be.kevinbaes.bap.r2dbcshowcase.r2dbc.client.GoalRepository clientRepository =
+                new be.kevinbaes.bap.r2dbcshowcase.r2dbc.client.GoalRepository(provider);
 
+        // more concurrent saves than the pool has connections, the rest waits for a connection to be released
+        Flux.range(0, 50)
+                .flatMap(i -> spiRepository.save(new Goal(0, "pooled goal " + i)))
+                .doOnSubscribe(s -> System.out.println("during inserts: " + provider))
+                .blockLast();
 
+        System.out.println("goals via client repository: " + clientRepository.findAll().count().block());
+        System.out.println("after inserts: " + provider);
 
+        provider.close();
     }
 
 }
@@ -0,0 +1,104 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.CrudOperations;
+import reactor.core.publisher.Flux;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows that CrudOperations#stream keeps heap usage flat while scanning a large table, where collecting
+ * the same select grows with the amount of rows.
+ *
+ * Fills an in-memory H2 goal table with a million rows, streams it with a fetch size of 1000 (keyset queries on H2)
+ * and measures the used heap after a GC every 100K rows. Pass "postgres" as argument to run the same scan against
+ * the local postgres, where it goes through a server side cursor.
+ *
+ * Fails when the heap grows more than MAX_HEAP_GROWTH over the baseline, a million goals take well over 100 MB,
+ * or when the heap after the last sample is more than MAX_DRIFT above the heap after the first one: a flat heap
+ * stays the same between 100K and 1M streamed rows. Run with a small heap (-Xmx256m) to see the difference
+ * with selectAll.
+ */
+public class CursorStreaming {
+
+    private static final int GOAL_COUNT = 1_000_000;
+    private static final int FETCH_SIZE = 1000;
+    private static final int SAMPLE_EVERY = 100_000;
+    private static final long MAX_HEAP_GROWTH = 16 * 1024 * 1024;
+    private static final long MAX_DRIFT = 4 * 1024 * 1024;
+
+    public static void main(String[] args) {
+        boolean postgres = args.length > 0 && args[0].equalsIgnoreCase("postgres");
+
+        new CursorStreaming().run(postgres
+                ? ConnectionUtil.pooledConnectionProvider()
+                : ConnectionUtil.h2PooledConnectionProvider());
+    }
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private void run(PooledConnectionProvider provider) {
+        QueryUtil queryUtil = new QueryUtil(provider);
+        CrudOperations crudOperations = new CrudOperations(queryUtil);
+
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+
+        ThroughputReport load = new GoalBulkLoader(provider)
+                .load(Flux.range(0, GOAL_COUNT).map(i -> new Goal(0, "goal" + i)))
+                .block();
+        System.out.println("loaded " + load);
+
+        final long baseline = usedHeapAfterGc();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong maxGrowth = new AtomicLong();
+        final AtomicLong firstSample = new AtomicLong(-1);
+        final AtomicLong lastSample = new AtomicLong();
+
+        crudOperations
+                .stream("select id, name from goal", "id", FETCH_SIZE, (row, rm) -> new Goal(
+                        row.get("id", Integer.class),
+                        row.get("name", String.class)
+                ))
+                .doOnNext(goal -> {
+                    if (rows.incrementAndGet() % SAMPLE_EVERY == 0) {
+                        long used = usedHeapAfterGc();
+                        long growth = used - baseline;
+                        maxGrowth.accumulateAndGet(growth, Math::max);
+                        firstSample.compareAndSet(-1, used);
+                        lastSample.set(used);
+                        System.out.println(rows.get() + " rows streamed, heap growth: " + growth / 1024 + " KB");
+                    }
+                })
+                .blockLast();
+
+        final long drift = lastSample.get() - firstSample.get();
+        System.out.println("streamed " + rows.get() + " rows on " + crudOperations.getDialect()
+                + ", max heap growth " + maxGrowth.get() / 1024 + " KB, "
+                + SAMPLE_EVERY + " to " + rows.get() + " rows: " + drift / 1024 + " KB");
+
+        queryUtil.clearGoalTable();
+        provider.close();
+
+        if (rows.get() != GOAL_COUNT) {
+            throw new IllegalStateException("streamed " + rows.get() + " of " + GOAL_COUNT + " rows");
+        }
+        if (maxGrowth.get() > MAX_HEAP_GROWTH) {
+            throw new IllegalStateException("heap grew " + maxGrowth.get() / 1024 + " KB while streaming, more than "
+                    + MAX_HEAP_GROWTH / 1024 + " KB");
+        }
+        if (drift > MAX_DRIFT) {
+            throw new IllegalStateException("heap grew " + drift / 1024 + " KB between " + SAMPLE_EVERY + " and "
+                    + rows.get() + " streamed rows, more than " + MAX_DRIFT / 1024 + " KB");
+        }
+    }
+
+    private long usedHeapAfterGc() {
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
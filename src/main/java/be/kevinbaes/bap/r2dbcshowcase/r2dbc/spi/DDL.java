@@ -1,5 +1,6 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
 
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.LeakDetectingConnectionFactory;
 import io.r2dbc.spi.Connection;
 import io.r2dbc.spi.ConnectionFactory;
 import io.r2dbc.spi.Result;
@@ -8,6 +9,7 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.function.Function;
 
 import static be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil.postgresConnectionFactory;
@@ -22,7 +24,10 @@ public class DDL {
     private ConnectionFactory connectionFactory;
 
     private void run() throws IOException {
-        connectionFactory = proxyConnectionFactory(postgresConnectionFactory());
+        // reports connections that stay open for more than a second, or are never closed at all
+        LeakDetectingConnectionFactory leakDetector =
+                new LeakDetectingConnectionFactory(proxyConnectionFactory(postgresConnectionFactory()), Duration.ofSeconds(1));
+        connectionFactory = leakDetector;
 
         final String dropTestTable = "drop table if exists test;";
         final String createTestTable = "create table test(\n" +
@@ -51,6 +56,9 @@ public class DDL {
         );
 
         System.in.read();
+
+        System.out.println(leakDetector);
+        leakDetector.close();
     }
 
     private Mono<Connection> openConnection() {
@@ -87,6 +95,8 @@ public class DDL {
                                         .delayUntil(
                                                 p -> commitTransaction(conn)
                                         )
+                                        .concatWith(Mono.from(conn.close()).then(Mono.empty()))
+                                        .onErrorResume(e -> Mono.from(conn.close()).then(Mono.error(e)))
 
                 );
     }
@@ -105,6 +115,8 @@ public class DDL {
                                                 result -> Mono.from(result.getRowsUpdated())
                                                         .thenEmpty(Mono.empty())
                                         )
+                                        .then(Mono.from(conn.close()))
+                                        .onErrorResume(e -> Mono.from(conn.close()).then(Mono.error(e)))
 
                 );
     }
@@ -132,12 +144,16 @@ public class DDL {
 
     private Mono<Long> rowsInTable(String tableName) {
         return Mono.from(connectionFactory.create())
-                .flatMapMany(
+                .flatMap(
                         conn ->
                                 Mono.from(conn.createStatement("select count(*) from " + tableName).execute())
                                         .flatMapMany(result ->
                                             result.map((row, rm) -> row.get("count", Long.class)))
-                ).next();
+                                        .next()
+                                        // close before emitting, next() cancels everything upstream of it
+                                        .delayUntil(count -> conn.close())
+                                        .onErrorResume(e -> Mono.from(conn.close()).then(Mono.error(e)))
+                );
     }
 
 }
@@ -0,0 +1,21 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import io.r2dbc.spi.ConnectionFactory;
+
+/**
+ * The databases used in this project, for the few statements that need different SQL on postgres and H2.
+ */
+public enum Dialect {
+    POSTGRES,
+    H2;
+
+    /**
+     * Detect the dialect from the driver name in the ConnectionFactoryMetadata, anything that isn't H2 is
+     * treated as postgres.
+     */
+    public static Dialect from(ConnectionFactory connectionFactory) {
+        String name = connectionFactory.getMetadata().getName();
+
+        return name != null && name.toLowerCase().contains("h2") ? H2 : POSTGRES;
+    }
+}
@@ -0,0 +1,41 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.GoalExporter.Format;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Export 100K goals from the in-memory H2 database as CSV and as NDJSON to temporary files.
+ */
+public class Export {
+
+    private static final int GOAL_COUNT = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        PooledConnectionProvider provider = ConnectionUtil.h2PooledConnectionProvider();
+        QueryUtil queryUtil = new QueryUtil(provider);
+
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+        new GoalBulkLoader(provider)
+                .load(Flux.range(0, GOAL_COUNT).map(i -> new Goal(0, "goal, \"" + i + "\"")))
+                .block();
+
+        GoalExporter exporter = new GoalExporter(provider);
+
+        for (Format format : Format.values()) {
+            Path file = Files.createTempFile("goals", "." + format.name().toLowerCase());
+            ThroughputReport report = exporter.export(format, file).block();
+
+            System.out.println(format + " export to " + file + ": " + report);
+        }
+
+        provider.close();
+    }
+}
@@ -0,0 +1,37 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.GoalBatch;
+import io.r2dbc.spi.Row;
+
+/**
+ * Collects the id and name columns of the goal table into GoalBatches of batchSize rows.
+ *
+ * Returns the batch for the row that fills it, GoalBatch.EMPTY for every other row, and finish() returns the rows
+ * that are left. Keeps the state of a single query, create a new one per subscription.
+ */
+public class GoalBatchMapper extends IndexedRowMapper<GoalBatch> {
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+
+    private final GoalBatch.Builder builder;
+
+    public GoalBatchMapper(int batchSize) {
+        super("id", "name");
+        this.builder = new GoalBatch.Builder(batchSize);
+    }
+
+    @Override
+    protected GoalBatch map(Row row, int[] indexes) {
+        builder.add(getInt(row, indexes[ID]), getString(row, indexes[NAME]));
+
+        return builder.isFull() ? builder.build() : GoalBatch.EMPTY;
+    }
+
+    /**
+     * the last, partial batch
+     */
+    public GoalBatch finish() {
+        return builder.size() == 0 ? GoalBatch.EMPTY : builder.build();
+    }
+}
@@ -0,0 +1,145 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Statement;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams goals into the goal table in chunks on a single connection, for imports of a lot of rows.
+ *
+ * The postgres driver has no COPY FROM STDIN support, the closest thing is sending a whole chunk as one array
+ * parameter and letting the server unnest it: one statement, one parameter and one round-trip per chunk.
+ * H2 has no unnest so there every chunk becomes a multi-row insert: insert into goal (name) values ($1), ($2), ...
+ *
+ * A new chunk is only requested from the goal Flux when the previous one is written, so the import runs in
+ * constant memory.
+ */
+public class GoalBulkLoader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private static final String POSTGRES_INSERT = "insert into goal (name) select unnest($1::varchar[])";
+
+    private final QueryUtil queryUtil;
+    private final Dialect dialect;
+    private final int chunkSize;
+
+    public GoalBulkLoader(ConnectionFactory connectionFactory) {
+        this(connectionFactory, DEFAULT_CHUNK_SIZE);
+    }
+
+    public GoalBulkLoader(ConnectionFactory connectionFactory, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be at least 1, was " + chunkSize);
+        }
+
+        this.queryUtil = new QueryUtil(connectionFactory);
+        this.dialect = Dialect.from(connectionFactory);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Insert all goals, the ids of the goals are ignored.
+     * @return how many rows and bytes of goal names were loaded and how long it took
+     */
+    public Mono<ThroughputReport> load(Flux<Goal> goals) {
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            final AtomicLong rows = new AtomicLong();
+            final AtomicLong bytes = new AtomicLong();
+
+            return queryUtil.executeStatement(conn ->
+                    goals
+                            .buffer(chunkSize)
+                            .concatMap(chunk -> {
+                                bytes.addAndGet(payloadSize(chunk));
+
+                                return insertChunk(conn, chunk);
+                            }, 1)
+            )
+                    .doOnNext(rows::addAndGet)
+                    .then(Mono.fromCallable(() ->
+                            new ThroughputReport(rows.get(), bytes.get(), Duration.ofNanos(System.nanoTime() - start))
+                    ));
+        });
+    }
+
+    private Flux<Integer> insertChunk(Connection connection, List<Goal> chunk) {
+        Statement stmt = dialect == Dialect.POSTGRES
+                ? unnestInsert(connection, chunk)
+                : multiRowInsert(connection, chunk);
+
+        return Flux.from(stmt.execute()).flatMap(result -> Mono.from(result.getRowsUpdated()));
+    }
+
+    private Statement unnestInsert(Connection connection, List<Goal> chunk) {
+        String[] names = new String[chunk.size()];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = chunk.get(i).getGoal();
+        }
+
+        return connection.createStatement(POSTGRES_INSERT).bind(0, names);
+    }
+
+    private Statement multiRowInsert(Connection connection, List<Goal> chunk) {
+        StringBuilder sql = new StringBuilder("insert into goal (name) values ");
+
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append("($").append(i + 1).append(')');
+        }
+
+        Statement stmt = connection.createStatement(sql.toString());
+
+        for (int i = 0; i < chunk.size(); i++) {
+            String name = chunk.get(i).getGoal();
+
+            if (name == null) {
+                stmt.bindNull(i, String.class);
+            } else {
+                stmt.bind(i, name);
+            }
+        }
+
+        return stmt;
+    }
+
+    /**
+     * UTF-8 size of the goal names in the chunk, counted without encoding them
+     */
+    private static long payloadSize(List<Goal> chunk) {
+        long size = 0;
+
+        for (Goal goal : chunk) {
+            String name = goal.getGoal();
+
+            if (name == null) {
+                continue;
+            }
+
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+
+                if (c < 0x80) {
+                    size += 1;
+                } else if (c < 0x800) {
+                    size += 2;
+                } else if (Character.isHighSurrogate(c)) {
+                    size += 4;
+                    i++;
+                } else {
+                    size += 3;
+                }
+            }
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,310 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.CrudOperations;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Row;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Exports the goal table as CSV or newline delimited JSON without creating a Goal or an output line per row.
+ * The driver still decodes every name into a String and every id into an Integer, the SPI has no way to read a
+ * column as bytes or as a primitive.
+ *
+ * The row mapper encodes every row straight into a pooled buffer. It returns the buffer when it is full and a
+ * shared marker that is filtered out otherwise, so only full buffers travel downstream. A full buffer is written to
+ * the channel on a separate scheduler while the next one fills up, and rows are only fetched (CrudOperations#stream
+ * batches, a cursor on postgres and keyset queries elsewhere) as fast as the buffers are written, so memory stays at
+ * a few buffers and one fetch batch.
+ *
+ * <pre>
+ * new GoalExporter(provider).export(Format.CSV, Paths.get("goals.csv")).block();
+ * </pre>
+ */
+public class GoalExporter {
+
+    public enum Format {
+        /**
+         * header line, names are quoted when they contain a comma, quote or line break
+         */
+        CSV,
+        /**
+         * one {"id":1,"name":"..."} object per line
+         */
+        NDJSON
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final String SELECT_GOALS = "select id, name from goal";
+    private static final byte[] CSV_HEADER = {'i', 'd', ',', 'n', 'a', 'm', 'e', '\n'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /**
+     * returned by the row mapper while the current buffer isn't full
+     */
+    private static final ByteBuffer NOT_FULL = ByteBuffer.allocate(0);
+
+    private final CrudOperations crudOperations;
+    private final ByteBufferPool bufferPool;
+    private final int fetchSize;
+    private final Scheduler writeScheduler;
+
+    public GoalExporter(ConnectionFactory connectionFactory) {
+        this(connectionFactory, new ByteBufferPool(DEFAULT_BUFFER_SIZE, 16), DEFAULT_FETCH_SIZE, Schedulers.elastic());
+    }
+
+    /**
+     * @param bufferPool buffers the rows are encoded in, can be shared between exports
+     * @param fetchSize rows per fetched batch
+     * @param writeScheduler runs the blocking channel writes
+     */
+    public GoalExporter(ConnectionFactory connectionFactory, ByteBufferPool bufferPool, int fetchSize, Scheduler writeScheduler) {
+        this.crudOperations = new CrudOperations(connectionFactory);
+        this.bufferPool = bufferPool;
+        this.fetchSize = fetchSize;
+        this.writeScheduler = writeScheduler;
+    }
+
+    /**
+     * Export to a file, an existing file is overwritten.
+     */
+    public Mono<ThroughputReport> export(Format format, Path file) {
+        return Mono.using(
+                () -> FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+                channel -> export(format, channel),
+                GoalExporter::close
+        );
+    }
+
+    /**
+     * Export to the channel, the channel is not closed.
+     * @return rows exported, bytes written and the time it took
+     */
+    public Mono<ThroughputReport> export(Format format, WritableByteChannel channel) {
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            final Encoder encoder = new Encoder(format);
+
+            return crudOperations.stream(SELECT_GOALS, "id", fetchSize, encoder)
+                    .filter(buffer -> buffer != NOT_FULL)
+                    .concatWith(Mono.fromCallable(encoder::finish))
+                    .concatMap(buffer -> write(channel, buffer), 1)
+                    .reduce(0L, Long::sum)
+                    .map(bytes -> new ThroughputReport(encoder.rows, bytes, Duration.ofNanos(System.nanoTime() - start)))
+                    .doOnError(e -> encoder.discard());
+        });
+    }
+
+    private Mono<Long> write(WritableByteChannel channel, ByteBuffer buffer) {
+        return Mono.fromCallable(() -> {
+            long written = 0;
+
+            try {
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+
+            return written;
+        }).subscribeOn(writeScheduler);
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * State of a single export, only used by the thread that maps the rows.
+     */
+    private class Encoder extends IndexedRowMapper<ByteBuffer> {
+        private static final int ID = 0;
+        private static final int NAME = 1;
+
+        private final Format format;
+        private ByteBuffer current;
+        private long rows;
+
+        private Encoder(Format format) {
+            super("id", "name");
+            this.format = format;
+            this.current = bufferPool.acquire();
+
+            if (format == Format.CSV) {
+                current.put(CSV_HEADER);
+            }
+        }
+
+        @Override
+        protected ByteBuffer map(Row row, int[] indexes) {
+            int id = getInt(row, indexes[ID]);
+            String name = getString(row, indexes[NAME]);
+            rows++;
+
+            // id, separators and every name character escaped as \\uXXXX
+            int maxSize = 32 + (name == null ? 0 : name.length() * 6);
+            ByteBuffer full = NOT_FULL;
+
+            if (current.remaining() < maxSize) {
+                full = flip(current);
+                current = maxSize > bufferPool.getBufferSize() ? ByteBuffer.allocate(maxSize) : bufferPool.acquire();
+            }
+
+            if (format == Format.CSV) {
+                putInt(current, id);
+                current.put((byte) ',');
+                putCsv(current, name);
+            } else {
+                put(current, "{\"id\":");
+                putInt(current, id);
+                put(current, ",\"name\":");
+                putJson(current, name);
+                current.put((byte) '}');
+            }
+            current.put((byte) '\n');
+
+            return full;
+        }
+
+        private ByteBuffer finish() {
+            ByteBuffer last = flip(current);
+            current = null;
+
+            return last;
+        }
+
+        private void discard() {
+            if (current != null) {
+                bufferPool.release(current);
+                current = null;
+            }
+        }
+
+        private ByteBuffer flip(ByteBuffer buffer) {
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static void put(ByteBuffer buffer, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer.put((byte) ascii.charAt(i));
+        }
+    }
+
+    private static void putInt(ByteBuffer buffer, int value) {
+        long remaining = value;
+
+        if (remaining < 0) {
+            buffer.put((byte) '-');
+            remaining = -remaining;
+        }
+
+        long divisor = 1;
+        while (divisor * 10 <= remaining) {
+            divisor *= 10;
+        }
+
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + remaining / divisor % 10));
+        }
+    }
+
+    private static void putCsv(ByteBuffer buffer, String name) {
+        if (name == null) {
+            return;
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < name.length() && !quote; i++) {
+            char c = name.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            putUtf8(buffer, name, false);
+            return;
+        }
+
+        buffer.put((byte) '"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            if (c == '"') {
+                buffer.put((byte) '"').put((byte) '"');
+            } else {
+                i = putChar(buffer, name, i);
+            }
+        }
+        buffer.put((byte) '"');
+    }
+
+    private static void putJson(ByteBuffer buffer, String name) {
+        if (name == null) {
+            put(buffer, "null");
+            return;
+        }
+
+        buffer.put((byte) '"');
+        putUtf8(buffer, name, true);
+        buffer.put((byte) '"');
+    }
+
+    private static void putUtf8(ByteBuffer buffer, String value, boolean jsonEscape) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (jsonEscape && (c == '"' || c == '\\')) {
+                buffer.put((byte) '\\').put((byte) c);
+            } else if (jsonEscape && c < 0x20) {
+                buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+            } else {
+                i = putChar(buffer, value, i);
+            }
+        }
+    }
+
+    /**
+     * UTF-8 encode the character at index i
+     * @return the index of the last character used, i + 1 for a surrogate pair
+     */
+    private static int putChar(ByteBuffer buffer, String value, int i) {
+        char c = value.charAt(i);
+
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+            buffer.put((byte) (0xF0 | codePoint >> 18))
+                    .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                    .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                    .put((byte) (0x80 | codePoint & 0x3F));
+            return i + 1;
+        } else {
+            buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+        }
+
+        return i;
+    }
+}
@@ -0,0 +1,22 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import io.r2dbc.spi.Row;
+
+/**
+ * Maps the id and name columns of the goal table by position.
+ */
+public class GoalRowMapper extends IndexedRowMapper<Goal> {
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+
+    public GoalRowMapper() {
+        super("id", "name");
+    }
+
+    @Override
+    protected Goal map(Row row, int[] indexes) {
+        return new Goal(getInt(row, indexes[ID]), getString(row, indexes[NAME]));
+    }
+}
@@ -0,0 +1,137 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import io.r2dbc.spi.ColumnMetadata;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+
+/**
+ * Row mapper that reads columns by position instead of by name.
+ *
+ * The positions of the columns are looked up once per Result instead of a name lookup for every column of every row:
+ * map a Result with forResult(), or perResult() for any row mapper, which remembers the positions for the rows of
+ * that Result only. Subclasses get the positions in the order of the column names they pass to the constructor.
+ *
+ * An instance can be shared between concurrent queries. Used directly as a BiFunction it keeps the positions of the
+ * last few RowMetadata instances, looked up by identity in a small lock-free table, so concurrent queries don't
+ * evict each other's positions on every row. forResult() skips even that lookup.
+ * <pre>
+ * Flux.from(statement.execute()).flatMap(result -> result.map(IndexedRowMapper.perResult(rowMapper)));
+ * </pre>
+ */
+public abstract class IndexedRowMapper<T> implements BiFunction<Row, RowMetadata, T> {
+
+    /**
+     * slots in the table of resolved positions, a power of two
+     */
+    private static final int RESOLVED_SLOTS = 16;
+
+    private final String[] columnNames;
+    private final AtomicReferenceArray<ResolvedColumns> resolved = new AtomicReferenceArray<>(RESOLVED_SLOTS);
+
+    protected IndexedRowMapper(String... columnNames) {
+        this.columnNames = columnNames;
+    }
+
+    /**
+     * A mapper for the rows of a single Result, which are mapped one after the other.
+     * Its positions are resolved on the first row and reused as long as the RowMetadata stays the same.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BiFunction<Row, RowMetadata, T> perResult(BiFunction<Row, RowMetadata, T> rowMapper) {
+        return rowMapper instanceof IndexedRowMapper ? ((IndexedRowMapper<T>) rowMapper).forResult() : rowMapper;
+    }
+
+    /**
+     * @see #perResult(BiFunction)
+     */
+    public BiFunction<Row, RowMetadata, T> forResult() {
+        return new ResultMapper();
+    }
+
+    @Override
+    public final T apply(Row row, RowMetadata rowMetadata) {
+        int slot = System.identityHashCode(rowMetadata) & (RESOLVED_SLOTS - 1);
+        ResolvedColumns columns = resolved.get(slot);
+
+        if (columns == null || columns.rowMetadata != rowMetadata) {
+            // two metadata in the same slot resolve again when they alternate, still correct
+            columns = new ResolvedColumns(rowMetadata, resolve(rowMetadata));
+            resolved.set(slot, columns);
+        }
+
+        return map(row, columns.indexes);
+    }
+
+    /**
+     * @param indexes position of every column name given to the constructor, in the same order
+     */
+    protected abstract T map(Row row, int[] indexes);
+
+    /**
+     * row.get(index, Integer.class) still boxes the value, the SPI has no primitive getters
+     */
+    protected static int getInt(Row row, int index) {
+        Integer value = row.get(index, Integer.class);
+
+        if (value == null) {
+            throw new IllegalStateException("column " + index + " is null");
+        }
+
+        return value;
+    }
+
+    protected static String getString(Row row, int index) {
+        return row.get(index, String.class);
+    }
+
+    private int[] resolve(RowMetadata rowMetadata) {
+        int[] indexes = new int[columnNames.length];
+
+        for (int i = 0; i < columnNames.length; i++) {
+            indexes[i] = indexOf(rowMetadata, columnNames[i]);
+        }
+
+        return indexes;
+    }
+
+    private static int indexOf(RowMetadata rowMetadata, String columnName) {
+        int index = 0;
+
+        for (ColumnMetadata column : rowMetadata.getColumnMetadatas()) {
+            if (column.getName().equalsIgnoreCase(columnName)) {
+                return index;
+            }
+            index++;
+        }
+
+        throw new IllegalArgumentException("column " + columnName + " is not part of the result");
+    }
+
+    private static class ResolvedColumns {
+        private final RowMetadata rowMetadata;
+        private final int[] indexes;
+
+        private ResolvedColumns(RowMetadata rowMetadata, int[] indexes) {
+            this.rowMetadata = rowMetadata;
+            this.indexes = indexes;
+        }
+    }
+
+    private class ResultMapper implements BiFunction<Row, RowMetadata, T> {
+        private RowMetadata rowMetadata;
+        private int[] indexes;
+
+        @Override
+        public T apply(Row row, RowMetadata rowMetadata) {
+            if (this.rowMetadata != rowMetadata) {
+                this.indexes = resolve(rowMetadata);
+                this.rowMetadata = rowMetadata;
+            }
+
+            return map(row, indexes);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PreparedStatementStats;
+import io.r2dbc.spi.Connection;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs the same select with parameters a number of times on one postgres connection and compares the
+ * PreparedStatementStats counters with what the server reports in pg_prepared_statements for that connection.
+ * Needs the postgres database from ConnectionUtil.
+ */
+public class PreparedStatements {
+
+    private static final int EXECUTIONS = 100;
+    private static final String SELECT_BY_ID = "select id, name from goal where id = $1";
+
+    public static void main(String[] args) {
+        PreparedStatementStats statementStats = new PreparedStatementStats(ConnectionUtil.postgresConnectionFactory());
+
+        long serverPrepared = Mono.usingWhen(statementStats.create(),
+                connection -> Flux.range(0, EXECUTIONS)
+                        .concatMap(i -> selectById(connection, i))
+                        .then(countPreparedStatements(connection)),
+                Connection::close)
+                .block();
+
+        System.out.println(statementStats);
+        System.out.println("prepared on the server: " + serverPrepared);
+
+        // one miss for the first execution, every execution after it reuses the prepared statement
+        if (statementStats.getMisses() != 1 || statementStats.getHits() != EXECUTIONS - 1 || serverPrepared < 1) {
+            throw new IllegalStateException("the select was not prepared once and reused: " + statementStats
+                    + ", prepared on the server: " + serverPrepared);
+        }
+    }
+
+    private static Mono<Void> selectById(Connection connection, int id) {
+        return Flux.from(connection.createStatement(SELECT_BY_ID)
+                .bind("$1", id)
+                .execute())
+                .concatMap(result -> result.map((row, rowMetadata) -> row.get("id", Integer.class)))
+                .then();
+    }
+
+    /**
+     * statements prepared on the server for this session, the driver's named statements are listed too
+     */
+    private static Mono<Long> countPreparedStatements(Connection connection) {
+        return Flux.from(connection.createStatement("select count(*) from pg_prepared_statements").execute())
+                .concatMap(result -> result.map((row, rowMetadata) -> row.get(0, Long.class)))
+                .next();
+    }
+}
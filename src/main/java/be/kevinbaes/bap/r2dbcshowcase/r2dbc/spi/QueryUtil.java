@@ -4,10 +4,17 @@ import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
 import io.r2dbc.spi.Connection;
 import io.r2dbc.spi.ConnectionFactory;
 import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
@@ -16,10 +23,28 @@ import java.util.function.Function;
  */
 public class QueryUtil {
 
+    private static final AtomicLong cursorCounter = new AtomicLong();
+
     private final ConnectionFactory connectionFactory;
+    private final Dialect dialect;
+    private final GoalRowMapper goalRowMapper = new GoalRowMapper();
+    private final ConcurrencyLimiter limiter;
 
     public QueryUtil(ConnectionFactory connectionFactory) {
+        this(connectionFactory, null);
+    }
+
+    /**
+     * @param limiter limits the concurrent executeStatement and executeInTransaction calls, null for no limit
+     */
+    public QueryUtil(ConnectionFactory connectionFactory, ConcurrencyLimiter limiter) {
         this.connectionFactory = connectionFactory;
+        this.dialect = Dialect.from(connectionFactory);
+        this.limiter = limiter;
+    }
+
+    public Dialect getDialect() {
+        return dialect;
     }
 
     public Mono<Connection> connect() {
@@ -41,12 +66,12 @@ public class QueryUtil {
      * @param statementFunction function that takes a connection and returns a statement to execute
      */
     public <T> Flux<T> executeStatement(Function<Connection, Publisher<? extends T>> statementFunction) {
-        return connect()
+        return limited(connect()
                 .flatMapMany(conn ->
                         Flux.from(statementFunction.apply(conn))
                                 .concatWith(Mono.from(conn.close()).then(Mono.empty()))
                                 .onErrorResume(e -> Mono.from(conn.close()).then(Mono.error(e)))
-                );
+                ));
     }
 
     /**
@@ -59,7 +84,7 @@ public class QueryUtil {
      * @param resultPublisher function that takes a connection and executes a statement
      */
     public <T> Flux<T> executeInTransaction(Function<Connection, Publisher<? extends T>> resultPublisher) {
-        return beginTransaction()
+        return limited(beginTransaction()
                     .flatMapMany( conn ->
                             Flux.from(resultPublisher.apply(conn))
                                     .delayUntil(p -> Mono.from(conn.commitTransaction()))
@@ -70,7 +95,154 @@ public class QueryUtil {
 //                                                  .then(Mono.empty()) // <-- this would swallow the error
                                                     .then(Mono.error(e)) // <-- popagates the error
                                     )
-                );
+                ));
+    }
+
+    /**
+     * the connection is acquired within the limit, so waiting queries don't hold a pooled connection
+     */
+    private <T> Flux<T> limited(Flux<T> work) {
+        return limiter == null ? work : limiter.limit(work);
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Stream the rows of a select in batches of fetchSize, the next batch is only fetched when all rows of the
+     * previous batch are requested downstream. At most one batch is held in memory, no matter how large the result is.
+     *
+     * The select runs as a server side cursor in a transaction (DECLARE ... CURSOR FOR, FETCH FORWARD n) on a single
+     * connection. Only postgres has SQL cursors, on other databases this signals an UnsupportedOperationException,
+     * use executeWithKeyset there.
+     *
+     * @param sql select statement with $n placeholders
+     * @param fetchSize number of rows per batch
+     * @param binder binds the parameters of the select to the statement it gets
+     * @param rowMapper converts a row, called as rows arrive
+     */
+    public <T> Flux<T> executeWithCursor(String sql, int fetchSize, Function<Statement, Statement> binder,
+                                         BiFunction<Row, RowMetadata, T> rowMapper) {
+        if (fetchSize < 1) {
+            return Flux.error(new IllegalArgumentException("fetch size must be at least 1, was " + fetchSize));
+        }
+        if (dialect != Dialect.POSTGRES) {
+            return Flux.error(new UnsupportedOperationException(dialect + " has no server side cursors, use executeWithKeyset"));
+        }
+
+        // prefetch 1: only ask for the next batch when the current one is consumed
+        return cursorBatches(sql, fetchSize, binder, rowMapper).flatMapIterable(Function.identity(), 1);
+    }
+
+    /**
+     * Stream the rows of a select ordered by keyColumn in batches of fetchSize, on any database.
+     *
+     * Every batch is a separate query for the next fetchSize rows with a key after the last key of the previous
+     * batch, so with an index on the key every batch costs the same, no matter how deep in the result it is.
+     * The key column has to be unique and not null, and part of the select. The next batch is only fetched when
+     * all rows of the previous batch are requested downstream.
+     *
+     * @param sql select statement with $n placeholders, without order by or limit
+     * @param keyColumn unique column of the select that orders the rows
+     * @param fetchSize number of rows per batch
+     * @param params parameters of the select, the key of the previous batch is bound after them
+     * @param rowMapper converts a row, called as rows arrive
+     */
+    public <T> Flux<T> executeWithKeyset(String sql, String keyColumn, int fetchSize, Object[] params,
+                                         BiFunction<Row, RowMetadata, T> rowMapper) {
+        if (fetchSize < 1) {
+            return Flux.error(new IllegalArgumentException("fetch size must be at least 1, was " + fetchSize));
+        }
+
+        return keysetBatches(sql, keyColumn, fetchSize, params, rowMapper).flatMapIterable(Function.identity(), 1);
+    }
+
+    private <T> Flux<List<T>> cursorBatches(String sql, int fetchSize, Function<Statement, Statement> binder,
+                                            BiFunction<Row, RowMetadata, T> rowMapper) {
+        final String cursor = "cursor_" + cursorCounter.incrementAndGet();
+        final String fetch = "fetch forward " + fetchSize + " from " + cursor;
+
+        return beginTransaction()
+                .flatMapMany(conn -> {
+                    Mono<List<T>> fetchBatch = Flux.from(conn.createStatement(fetch).execute())
+                            .concatMap(result -> result.map(IndexedRowMapper.perResult(rowMapper)))
+                            .collectList();
+
+                    Mono<Void> declare = Flux.from(
+                            binder.apply(conn.createStatement("declare " + cursor + " no scroll cursor for " + sql)).execute()
+                    )
+                            .flatMap(Result::getRowsUpdated)
+                            .then();
+
+                    Mono<Void> closeCursor = Flux.from(conn.createStatement("close " + cursor).execute())
+                            .flatMap(Result::getRowsUpdated)
+                            .then();
+
+                    return declare
+                            .then(fetchBatch)
+                            // a batch smaller than the fetch size means the cursor is exhausted
+                            .expand(batch -> batch.size() < fetchSize ? Mono.empty() : fetchBatch)
+                            .filter(batch -> !batch.isEmpty())
+                            .concatWith(closeCursor
+                                    .then(Mono.from(conn.commitTransaction()))
+                                    .then(Mono.from(conn.close()))
+                                    .then(Mono.empty()))
+                            .onErrorResume(e -> Mono.from(conn.rollbackTransaction())
+                                    .then(Mono.from(conn.close()))
+                                    .then(Mono.error(e)))
+                            // the subscriber stopped early, the cursor disappears with the transaction
+                            .doOnCancel(() -> Mono.from(conn.rollbackTransaction())
+                                    .then(Mono.from(conn.close()))
+                                    .subscribe());
+                });
+    }
+
+    private <T> Flux<List<T>> keysetBatches(String sql, String keyColumn, int fetchSize, Object[] params,
+                                            BiFunction<Row, RowMetadata, T> rowMapper) {
+        final String firstPage = "select * from (" + sql + ") q order by q." + keyColumn + " limit " + fetchSize;
+        final String nextPage = "select * from (" + sql + ") q where q." + keyColumn + " > $" + (params.length + 1)
+                + " order by q." + keyColumn + " limit " + fetchSize;
+
+        return Flux.defer(() -> {
+            final AtomicReference<Object> lastKey = new AtomicReference<>();
+
+            Mono<List<T>> fetchBatch = Mono.defer(() -> {
+                Object after = lastKey.get();
+
+                return executeStatement(conn -> {
+                    Statement stmt = conn.createStatement(after == null ? firstPage : nextPage);
+                    bind(stmt, params);
+                    if (after != null) {
+                        stmt.bind(params.length, after);
+                    }
+
+                    return Flux.from(stmt.execute()).concatMap(result -> {
+                        BiFunction<Row, RowMetadata, T> resultMapper = IndexedRowMapper.perResult(rowMapper);
+
+                        return result.map((row, rowMetadata) -> {
+                            lastKey.set(row.get(keyColumn, Object.class));
+                            return resultMapper.apply(row, rowMetadata);
+                        });
+                    });
+                }).collectList();
+            });
+
+            return fetchBatch
+                    // a batch smaller than the fetch size was the last one
+                    .expand(batch -> batch.size() < fetchSize ? Mono.empty() : fetchBatch)
+                    .filter(batch -> !batch.isEmpty());
+        });
+    }
+
+    private static void bind(Statement stmt, Object[] params) {
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] == null) {
+                stmt.bindNull(i, Object.class);
+            } else {
+                stmt.bind(i, params[i]);
+            }
+        }
     }
 
     /**
@@ -86,15 +258,27 @@ public class QueryUtil {
                 .blockLast();
     }
 
+    /**
+     * create the goal table if it doesn't exist yet, needed for the in-memory H2 database
+     */
+    public void createGoalTable() {
+        final String createGoals = "create table if not exists goal (id serial primary key, name varchar(50))";
+
+        executeStatement(conn -> Mono.from(conn.createStatement(createGoals).execute())
+                .flatMap( result ->
+                        Mono.from(result.getRowsUpdated())
+                ))
+                .blockLast();
+    }
+
     Publisher<Goal> mapResultToGoal(Result result){
+        BiFunction<Row, RowMetadata, Goal> resultMapper = goalRowMapper.forResult();
+
         return result.map(
                 (r, rm) -> {
-                    Integer id = r.get("id", Integer.class);
-                    System.out.println("mapping row {" + id + "}");
-                    return new Goal(
-                            id,
-                            r.get("name", String.class)
-                    );
+                    Goal goal = resultMapper.apply(r, rm);
+                    System.out.println("mapping row {" + goal.getId() + "}");
+                    return goal;
                 }
         );
     }
@@ -0,0 +1,56 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.RoutingConnectionFactory;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.RoutingConnectionFactory.Balancing;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.GoalRepository;
+
+import java.util.Arrays;
+
+/**
+ * Two separate in-memory H2 databases stand in for a primary and a replica. There is no replication between them,
+ * which makes it easy to see where every query went: a goal saved through the routing factory is on the primary,
+ * so a plain findById (replica) doesn't find it while a findById in the primary() context does.
+ */
+public class ReadWriteSplitting {
+
+    public static void main(String[] args) {
+        PooledConnectionProvider primary = pool("primary-database");
+        PooledConnectionProvider replica = pool("replica-database");
+
+        RoutingConnectionFactory routing = new RoutingConnectionFactory(primary, Arrays.asList(replica), Balancing.ROUND_ROBIN);
+        GoalRepository goalRepository = new GoalRepository(routing);
+
+        Goal saved = goalRepository.save(new Goal(0, "written to the primary")).block();
+        System.out.println("saved " + saved);
+
+        System.out.println("findById from the replica: " + goalRepository.findById(saved.getId()).block());
+        System.out.println("findById from the primary: " + goalRepository.findById(saved.getId())
+                .subscriberContext(RoutingConnectionFactory.primary())
+                .block());
+
+        System.out.println(routing);
+
+        primary.close();
+        replica.close();
+    }
+
+    /**
+     * a separate in-memory database per pool, it stays alive when the pool closes its idle connections
+     */
+    private static PooledConnectionProvider pool(String database) {
+        PooledConnectionProvider provider = PooledConnectionProvider.builder(ConnectionUtil.H2ConnectionFactory(database))
+                .initialSize(1)
+                .maxSize(5)
+                .build();
+        provider.warmUp().block();
+
+        QueryUtil queryUtil = new QueryUtil(provider);
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+
+        return provider;
+    }
+}
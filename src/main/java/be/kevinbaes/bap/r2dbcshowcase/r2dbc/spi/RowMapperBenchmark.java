@@ -0,0 +1,81 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.PooledConnectionProvider;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.CrudOperations;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import reactor.core.publisher.Flux;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.BiFunction;
+
+/**
+ * Compare mapping rows by column name with the IndexedRowMapper on a 100K row scan of an in-memory H2 goal table.
+ *
+ * H2 runs on the calling thread, so the allocated bytes of the current thread cover the driver and the mapping.
+ * Both mappers run a few times first to warm up the JIT.
+ */
+public class RowMapperBenchmark {
+
+    private static final int GOAL_COUNT = 100_000;
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    public static void main(String[] args) {
+        new RowMapperBenchmark().run();
+    }
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private CrudOperations crudOperations;
+
+    private void run() {
+        PooledConnectionProvider provider = ConnectionUtil.h2PooledConnectionProvider();
+        QueryUtil queryUtil = new QueryUtil(provider);
+        crudOperations = new CrudOperations(queryUtil);
+
+        queryUtil.createGoalTable();
+        queryUtil.clearGoalTable();
+        new GoalBulkLoader(provider)
+                .load(Flux.range(0, GOAL_COUNT).map(i -> new Goal(0, "goal" + i)))
+                .block();
+
+        measure("by name ", this::mapByName);
+        measure("by index", new GoalRowMapper());
+
+        provider.close();
+    }
+
+    private void measure(String name, BiFunction<Row, RowMetadata, Goal> rowMapper) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            scan(rowMapper);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            scan(rowMapper);
+        }
+
+        long nanosPerRow = (System.nanoTime() - start) / ((long) MEASURED_RUNS * GOAL_COUNT);
+        long bytesPerRow = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / ((long) MEASURED_RUNS * GOAL_COUNT);
+
+        System.out.println(name + ": " + nanosPerRow + " ns/row, " + bytesPerRow + " bytes allocated/row");
+    }
+
+    private void scan(BiFunction<Row, RowMetadata, Goal> rowMapper) {
+        crudOperations.select("select id, name from goal", rowMapper).blockLast();
+    }
+
+    private Goal mapByName(Row row, RowMetadata metadata) {
+        return new Goal(
+                row.get("id", Integer.class),
+                row.get("name", String.class)
+        );
+    }
+}
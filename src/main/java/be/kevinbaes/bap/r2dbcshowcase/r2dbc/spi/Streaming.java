@@ -2,6 +2,7 @@ package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
 
 import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
 import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository.GoalRepository;
 import io.r2dbc.spi.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -29,6 +30,8 @@ public class Streaming {
      * database session times for 100K goals
      * insert: ~1.5 - 3 seconds
      * select all:  4.5 - 6.5 seconds
+     *
+     * For results that don't fit in memory use CrudOperations#stream with a fetch size, see CursorStreaming
      **************/
     private void run() throws InterruptedException, IOException {
         connectionFactory = ConnectionUtil.pooledConnectionFactory();
@@ -51,6 +54,14 @@ public class Streaming {
 
         // Takes <5 seconds on my machine
         System.out.println("time to insert and fetch " + goals.size() + " goals: [" + (end - start) + "] ms.");
+
+        // the same select split in id ranges, each range on its own pooled connection
+        final long partitionedStart = System.currentTimeMillis();
+        List<Goal> partitionedGoals = selectAllGoalsPartitioned(4).collectList().block();
+        final long partitionedEnd = System.currentTimeMillis();
+
+        System.out.println("time to fetch " + partitionedGoals.size() + " goals in 4 partitions: ["
+                + (partitionedEnd - partitionedStart) + "] ms.");
 //
 //        goalFlux.subscribe(
 //                System.out::println,
@@ -75,6 +86,13 @@ public class Streaming {
         );
     }
 
+    /**
+     * selectAllGoals split over the given number of connections, see PartitionedScan
+     */
+    Flux<Goal> selectAllGoalsPartitioned(int partitions) {
+        return new GoalRepository(connectionFactory).partitionedScan(partitions).unordered();
+    }
+
     Flux<Goal> selectAllGoalsWithoutUtil() {
         return Mono.from(connectionFactory.create())
                 .flatMapMany(conn ->
@@ -0,0 +1,50 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi;
+
+import java.time.Duration;
+
+/**
+ * Rows and bytes moved in a certain time, printed at the end of bulk operations.
+ */
+public class ThroughputReport {
+
+    private final long rows;
+    private final long bytes;
+    private final Duration elapsed;
+
+    public ThroughputReport(long rows, long bytes, Duration elapsed) {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.elapsed = elapsed;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    public double rowsPerSecond() {
+        return perSecond(rows);
+    }
+
+    public double bytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    private double perSecond(long amount) {
+        long nanos = Math.max(1, elapsed.toNanos());
+        return amount * 1_000_000_000d / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows, %d bytes in %d ms (%.0f rows/s, %.0f bytes/s)",
+                rows, bytes, elapsed.toMillis(), rowsPerSecond(), bytesPerSecond());
+    }
+}
@@ -0,0 +1,191 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Collects the ids that are loaded within a short time window and loads them with one query, like a DataLoader.
+ *
+ * The first load(id) opens a window, the batch is sent when the window closes or when it holds maxBatchSize
+ * distinct ids, whichever comes first. Every element that comes back completes the loads waiting for its id,
+ * ids that aren't found complete empty.
+ *
+ * <pre>
+ * BatchLoader&lt;Integer, Goal&gt; goals = goalRepository.batchLoader(Duration.ofMillis(2), 100);
+ * goals.load(1).subscribe(...);
+ * goals.load(2).subscribe(...); // same query as id 1
+ * </pre>
+ */
+public class BatchLoader<ID, T> {
+
+    private final Function<List<ID>, Flux<T>> batchFunction;
+    private final Function<T, ID> idExtractor;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Scheduler scheduler;
+
+    private final Object lock = new Object();
+    private Map<ID, List<Waiter<T>>> pending = new LinkedHashMap<>();
+    private long batchNumber;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedIds = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong largestBatch = new AtomicLong();
+
+    /**
+     * @param batchFunction loads the elements for a list of distinct ids
+     * @param idExtractor gets the id of a loaded element
+     * @param window how long to collect ids after the first one
+     * @param maxBatchSize send the batch immediately when it has this many ids
+     */
+    public BatchLoader(Function<List<ID>, Flux<T>> batchFunction, Function<T, ID> idExtractor, Duration window, int maxBatchSize) {
+        this(batchFunction, idExtractor, window, maxBatchSize, Schedulers.parallel());
+    }
+
+    public BatchLoader(Function<List<ID>, Flux<T>> batchFunction, Function<T, ID> idExtractor, Duration window,
+                       int maxBatchSize, Scheduler scheduler) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1, was " + maxBatchSize);
+        }
+
+        this.batchFunction = batchFunction;
+        this.idExtractor = idExtractor;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = scheduler;
+    }
+
+    public Mono<T> load(ID id) {
+        return Mono.create(sink -> enqueue(id, sink));
+    }
+
+    private void enqueue(ID id, MonoSink<T> sink) {
+        Map<ID, List<Waiter<T>>> fullBatch = null;
+
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                final long batch = batchNumber;
+                scheduler.schedule(() -> flushWindow(batch), windowNanos, TimeUnit.NANOSECONDS);
+            }
+
+            pending.computeIfAbsent(id, k -> new ArrayList<>()).add(new Waiter<>(sink, System.nanoTime()));
+            loads.increment();
+
+            if (pending.size() >= maxBatchSize) {
+                fullBatch = takePending();
+            }
+        }
+
+        if (fullBatch != null) {
+            execute(fullBatch);
+        }
+    }
+
+    /**
+     * the window of a batch closed, unless that batch was already sent because it was full
+     */
+    private void flushWindow(long batch) {
+        Map<ID, List<Waiter<T>>> waiting;
+
+        synchronized (lock) {
+            if (batch != batchNumber || pending.isEmpty()) {
+                return;
+            }
+            waiting = takePending();
+        }
+
+        execute(waiting);
+    }
+
+    private Map<ID, List<Waiter<T>>> takePending() {
+        Map<ID, List<Waiter<T>>> waiting = pending;
+        pending = new LinkedHashMap<>();
+        batchNumber++;
+
+        return waiting;
+    }
+
+    private void execute(Map<ID, List<Waiter<T>>> waiting) {
+        final long now = System.nanoTime();
+        for (List<Waiter<T>> waiters : waiting.values()) {
+            for (Waiter<T> waiter : waiters) {
+                waitNanos.add(now - waiter.enqueuedAt);
+            }
+        }
+
+        batches.increment();
+        batchedIds.add(waiting.size());
+        largestBatch.accumulateAndGet(waiting.size(), Math::max);
+
+        batchFunction.apply(new ArrayList<>(waiting.keySet()))
+                .subscribe(
+                        element -> {
+                            List<Waiter<T>> waiters = waiting.remove(idExtractor.apply(element));
+                            if (waiters != null) {
+                                waiters.forEach(waiter -> waiter.sink.success(element));
+                            }
+                        },
+                        error -> waiting.values().forEach(waiters -> waiters.forEach(waiter -> waiter.sink.error(error))),
+                        // whatever is left wasn't found
+                        () -> waiting.values().forEach(waiters -> waiters.forEach(waiter -> waiter.sink.success()))
+                );
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public double averageBatchSize() {
+        long batchCount = batches.sum();
+
+        return batchCount == 0 ? 0 : (double) batchedIds.sum() / batchCount;
+    }
+
+    public long getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    /**
+     * average time between load(id) and sending the batch the id is part of
+     */
+    public Duration averageWait() {
+        long loadCount = loads.sum();
+
+        return loadCount == 0 ? Duration.ZERO : Duration.ofNanos(waitNanos.sum() / loadCount);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchLoader{" +
+                "batches=" + getBatches() +
+                ", averageBatchSize=" + String.format("%.1f", averageBatchSize()) +
+                ", largestBatch=" + getLargestBatch() +
+                ", averageWait=" + averageWait().toNanos() / 1000 + "us" +
+                '}';
+    }
+
+    private static class Waiter<T> {
+        private final MonoSink<T> sink;
+        private final long enqueuedAt;
+
+        private Waiter(MonoSink<T> sink, long enqueuedAt) {
+            this.sink = sink;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
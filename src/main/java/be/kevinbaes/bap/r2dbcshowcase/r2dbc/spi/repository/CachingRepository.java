@@ -0,0 +1,322 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-through cache in front of another repository's findById.
+ *
+ * Found elements are kept until they are older than the time to live, or until they are among the least recently
+ * used elements of a full cache. Concurrent findById calls for an id that isn't cached share a single query.
+ *
+ * A cache hit takes no lock: the elements are in a ConcurrentHashMap and a hit only stamps the element with the
+ * time it was read. When a put makes the cache too large, one thread sorts the elements by that time and removes
+ * the expired ones and the least recently used ones until the cache is TRIM_FRACTION below its maximum size, so the
+ * cost of the sort is spread over many puts and the cache is only approximately LRU in between.
+ * save and saveAll put the saved element in the cache, delete and deleteAll remove it, so a findById after a
+ * write never returns the old element.
+ *
+ * The cache keeps its own copy of every element and findById returns a new copy, so changing a returned or saved
+ * element doesn't change the cached one before it is saved.
+ *
+ * <pre>
+ * R2dbcRepository&lt;Goal, Integer&gt; goals = new CachingRepository&lt;&gt;(new GoalRepository(provider), Goal::getId,
+ *         goal -&gt; new Goal(goal.getId(), goal.getGoal()), 10_000, Duration.ofMinutes(1));
+ * </pre>
+ */
+public class CachingRepository<T, ID> implements R2dbcRepository<T, ID> {
+
+    /**
+     * a trim removes this fraction of the maximum size on top of the elements over the maximum
+     */
+    private static final int TRIM_FRACTION = 16;
+
+    /**
+     * a hit only stamps the element again when its stamp is older than this, hot elements aren't written on every read
+     */
+    private static final long READ_STAMP_NANOS = 1_000_000;
+
+    private final R2dbcRepository<T, ID> delegate;
+    private final Function<T, ID> idExtractor;
+    private final UnaryOperator<T> copier;
+    private final int maxSize;
+    private final long timeToLiveNanos;
+
+    private final Map<ID, CachedElement<T>> cache = new ConcurrentHashMap<>();
+    private final Map<ID, Mono<T>> loading = new ConcurrentHashMap<>();
+    private final AtomicBoolean trimming = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param delegate repository that does the actual queries
+     * @param idExtractor gets the id of an element
+     * @param copier copies an element, the identity function is only safe for immutable elements
+     * @param maxSize maximum number of cached elements
+     * @param timeToLive how long an element stays in the cache after it was loaded or saved
+     */
+    public CachingRepository(R2dbcRepository<T, ID> delegate, Function<T, ID> idExtractor, UnaryOperator<T> copier,
+                             int maxSize, Duration timeToLive) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("cache size must be at least 1, was " + maxSize);
+        }
+
+        this.delegate = delegate;
+        this.idExtractor = idExtractor;
+        this.copier = copier;
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = timeToLive.toNanos();
+    }
+
+    @Override
+    public Flux<T> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Mono<T> findById(ID id) {
+        return Mono.defer(() -> {
+            T cached = getCached(id);
+
+            if (cached != null) {
+                hits.increment();
+                return Mono.just(cached);
+            }
+
+            misses.increment();
+            // the load is shared between the subscribers, every one of them gets its own copy
+            return loading.computeIfAbsent(id, this::load).map(copier);
+        });
+    }
+
+    /**
+     * Always queries the delegate, the found elements are cached.
+     */
+    @Override
+    public Flux<T> findAllById(Publisher<ID> ids) {
+        return delegate.findAllById(ids).doOnNext(element -> update(idExtractor.apply(element), element));
+    }
+
+    /**
+     * Query the element once for all current subscribers. When the id is invalidated while the query runs,
+     * the result is still returned but not cached.
+     */
+    private Mono<T> load(ID id) {
+        final long start = System.nanoTime();
+        final AtomicReference<Mono<T>> self = new AtomicReference<>();
+
+        self.set(delegate.findById(id)
+                .doOnSuccess(element -> {
+                    loads.increment();
+                    loadNanos.add(System.nanoTime() - start);
+
+                    if (loading.remove(id, self.get()) && element != null) {
+                        put(id, element);
+                    }
+                })
+                .doOnError(e -> loading.remove(id, self.get()))
+                .cache());
+
+        return self.get();
+    }
+
+    @Override
+    public Mono<T> save(T element) {
+        return delegate.save(element).doOnNext(saved -> update(idExtractor.apply(saved), saved));
+    }
+
+    @Override
+    public Flux<T> saveAll(Flux<T> elements) {
+        return delegate.saveAll(elements).doOnNext(saved -> update(idExtractor.apply(saved), saved));
+    }
+
+    @Override
+    public Mono<Integer> delete(ID id) {
+        return delegate.delete(id).doFinally(signal -> invalidate(id));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The ids are invalidated after the delete, a findById during the delete can't cache a row that is being deleted.
+     */
+    @Override
+    public Mono<Integer> deleteAllById(Publisher<ID> ids) {
+        return Mono.defer(() -> {
+            List<ID> deleted = new ArrayList<>();
+
+            return delegate.deleteAllById(Flux.from(ids).doOnNext(deleted::add))
+                    .doFinally(signal -> deleted.forEach(this::invalidate));
+        });
+    }
+
+    @Override
+    public Mono<Integer> deleteAll() {
+        return delegate.deleteAll().doFinally(signal -> invalidateAll());
+    }
+
+    public void invalidate(ID id) {
+        loading.remove(id);
+        cache.remove(id);
+    }
+
+    public void invalidateAll() {
+        loading.clear();
+        cache.clear();
+    }
+
+    private void update(ID id, T element) {
+        loading.remove(id);
+        put(id, element);
+    }
+
+    private void put(ID id, T element) {
+        long now = System.nanoTime();
+        cache.put(id, new CachedElement<>(copier.apply(element), now + timeToLiveNanos, now));
+
+        if (cache.size() > maxSize) {
+            trim();
+        }
+    }
+
+    private T getCached(ID id) {
+        CachedElement<T> cached = cache.get(id);
+
+        if (cached == null) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (cached.expiresAt - now < 0) {
+            if (cache.remove(id, cached)) {
+                evictions.increment();
+            }
+            return null;
+        }
+
+        if (now - cached.lastRead > READ_STAMP_NANOS) {
+            cached.lastRead = now;
+        }
+        return copier.apply(cached.element);
+    }
+
+    /**
+     * Remove the expired elements and the least recently read ones, on one thread at a time. Puts on other threads
+     * don't wait for it, the cache can be a bit over its maximum size until the trim is done.
+     */
+    private void trim() {
+        if (!trimming.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long now = System.nanoTime();
+
+            // lastRead keeps changing while the sort runs, sort on a snapshot of it
+            List<TrimCandidate<ID, T>> candidates = new ArrayList<>(cache.size());
+            cache.forEach((id, cached) -> candidates.add(new TrimCandidate<>(id, cached, cached.lastRead - now)));
+            candidates.sort((a, b) -> Long.compare(a.lastRead, b.lastRead));
+
+            int excess = candidates.size() - maxSize + maxSize / TRIM_FRACTION;
+            for (TrimCandidate<ID, T> candidate : candidates) {
+                boolean expired = candidate.element.expiresAt - now < 0;
+
+                if ((excess > 0 || expired) && cache.remove(candidate.id, candidate.element)) {
+                    evictions.increment();
+                    excess--;
+                }
+            }
+        } finally {
+            trimming.set(false);
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * fraction of findById calls answered from the cache, 0 when nothing was requested yet
+     */
+    public double hitRatio() {
+        long hitCount = getHits();
+        long requests = hitCount + getMisses();
+
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    /**
+     * average time of the queries done for cache misses
+     */
+    public Duration averageLoadTime() {
+        long loadCount = loads.sum();
+
+        return loadCount == 0 ? Duration.ZERO : Duration.ofNanos(loadNanos.sum() / loadCount);
+    }
+
+    /**
+     * elements removed because the cache was full or because they expired
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingRepository{" +
+                "size=" + size() +
+                ", hitRatio=" + String.format("%.2f", hitRatio()) +
+                ", averageLoadTime=" + averageLoadTime().toNanos() / 1000 + "us" +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+
+    private static class CachedElement<T> {
+        private final T element;
+        private final long expiresAt;
+        // written without synchronization, a lost update only makes the LRU order less exact
+        private volatile long lastRead;
+
+        private CachedElement(T element, long expiresAt, long lastRead) {
+            this.element = element;
+            this.expiresAt = expiresAt;
+            this.lastRead = lastRead;
+        }
+    }
+
+    private static class TrimCandidate<ID, T> {
+        private final ID id;
+        private final CachedElement<T> element;
+        // lastRead relative to the start of the trim, the least recently read element has the lowest
+        private final long lastRead;
+
+        private TrimCandidate(ID id, CachedElement<T> element, long lastRead) {
+            this.id = id;
+            this.element = element;
+            this.lastRead = lastRead;
+        }
+    }
+}
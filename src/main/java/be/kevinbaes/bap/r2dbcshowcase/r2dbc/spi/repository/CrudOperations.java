@@ -1,22 +1,39 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
 
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.RoutingConnectionFactory;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.Dialect;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.IndexedRowMapper;
 import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.QueryUtil;
 import io.r2dbc.spi.*;
+import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public class CrudOperations {
 
+    /**
+     * number of rows bound to a single insert statement by insertAll
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     private final QueryUtil queryUtil;
 
     public CrudOperations(ConnectionFactory connectionFactory) {
-        queryUtil = new QueryUtil(connectionFactory);
+        this(new QueryUtil(connectionFactory));
+    }
+
+    public CrudOperations(QueryUtil queryUtil) {
+        this.queryUtil = queryUtil;
     }
 
     /**
      * Execute a select statement with 0 or more parameters to bind.
+     * The connection is marked as read-only work, a RoutingConnectionFactory takes it from a replica.
      * @param sql statement to execute
      * @param rowMapper BiFunction<Row,RowMetadata, T> to convert a single row to a T
      * @param params parameters to bind to the SQL statement
@@ -24,19 +41,107 @@ public class CrudOperations {
      * @return Flux<T>
      */
     public <T> Flux<T> select(String sql, BiFunction<Row, RowMetadata, T> rowMapper, Object... params) {
-        return queryUtil.executeStatement(conn -> {
-            Statement stmt = createStatementWithParams(conn, sql, params);
+        return updateReturning(sql, rowMapper, params)
+                .subscriberContext(RoutingConnectionFactory.readOnly());
+    }
+
+    /**
+     * Select where the rows are mapped on the scheduler of offloading instead of the driver's I/O thread.
+     * The mapper gets the values of a row in the column order of the select. Rows are only requested from the driver
+     * as the mapping keeps up, at most parallelism rows ahead.
+     * @see OffloadedMapping
+     */
+    public <T> Flux<T> selectOffloaded(String sql, OffloadedMapping offloading, Function<Object[], T> mapper, Object... params) {
+        return Flux.defer(() -> {
+            OffloadedMapping.Stats stats = offloading.statsFor(sql);
+
+            // concatMap with prefetch 1 instead of the flatMap of select, which requests 32 rows ahead per result
+            Flux<Object[]> rows = executeStatement(sql, params, stmt ->
+                    Flux.from(stmt.execute()).concatMap(result -> result.map(stats::decode), 1)
+            );
+
+            return offloading.map(rows, stats, mapper);
+        }).subscriberContext(RoutingConnectionFactory.readOnly());
+    }
 
-            return Flux.from(stmt.execute()).flatMap(result -> result.map(rowMapper));
-        });
+    /**
+     * Execute an insert, update or delete with a returning clause and map the returned rows.
+     * Unlike select this isn't marked as read-only, so a RoutingConnectionFactory runs it on the primary.
+     */
+    public <T> Flux<T> updateReturning(String sql, BiFunction<Row, RowMetadata, T> rowMapper, Object... params) {
+        return executeStatement(sql, params, stmt ->
+                Flux.from(stmt.execute()).flatMap(result -> result.map(IndexedRowMapper.perResult(rowMapper)))
+        );
+    }
+
+    /**
+     * Split the elements in chunks and run one statement per chunk, all on the same connection.
+     * Use this when the statement depends on the chunk, like a multi-row insert or an IN list.
+     * The next chunk is only requested when the rows of the previous statement are consumed.
+     * @param elements elements to split in chunks
+     * @param chunkSize maximum number of elements per chunk
+     * @param queryForChunk creates the statement and its parameters for a chunk
+     * @param rowMapper converts the rows returned by every statement
+     */
+    public <E, T> Flux<T> selectInChunks(Flux<E> elements, int chunkSize, Function<List<E>, Query> queryForChunk,
+                                         BiFunction<Row, RowMetadata, T> rowMapper) {
+        return executeInChunks(elements, chunkSize, queryForChunk,
+                result -> result.map(IndexedRowMapper.perResult(rowMapper)));
+    }
+
+    /**
+     * Split the elements in chunks and run one update or delete per chunk, all on the same connection.
+     * @return the total number of updated rows
+     * @see #selectInChunks(Flux, int, Function, BiFunction)
+     */
+    public <E> Mono<Integer> updateInChunks(Flux<E> elements, int chunkSize, Function<List<E>, Query> queryForChunk) {
+        return executeInChunks(elements, chunkSize, queryForChunk, Result::getRowsUpdated)
+                .reduce(0, Integer::sum);
+    }
+
+    private <E, T> Flux<T> executeInChunks(Flux<E> elements, int chunkSize, Function<List<E>, Query> queryForChunk,
+                                           Function<Result, Publisher<T>> resultMapper) {
+        if (chunkSize < 1) {
+            return Flux.error(new IllegalArgumentException("chunk size must be at least 1, was " + chunkSize));
+        }
+
+        return queryUtil.executeStatement(conn ->
+                elements
+                        .buffer(chunkSize)
+                        .concatMap(chunk -> {
+                            Query query = queryForChunk.apply(chunk);
+                            Statement stmt = createStatementWithParams(conn, query.getSql(), query.getParams());
+
+                            return Flux.from(stmt.execute()).concatMap(resultMapper);
+                        }, 1)
+        );
+    }
+
+    /**
+     * Execute a select statement and stream the rows ordered by keyColumn in batches of fetchSize, for results that
+     * don't fit in memory. A new batch is only fetched when the rows of the previous one are requested.
+     * On postgres the rows come from a server side cursor, on other databases every batch is a keyset query.
+     * @param sql select statement without order by, keyColumn has to be a unique column of it
+     * @see QueryUtil#executeWithCursor(String, int, Function, BiFunction)
+     * @see QueryUtil#executeWithKeyset(String, String, int, Object[], BiFunction)
+     */
+    public <T> Flux<T> stream(String sql, String keyColumn, int fetchSize, BiFunction<Row, RowMetadata, T> rowMapper,
+                              Object... params) {
+        Flux<T> rows = getDialect() == Dialect.POSTGRES
+                ? queryUtil.executeWithCursor("select * from (" + sql + ") q order by q." + keyColumn, fetchSize, stmt -> {
+                    bindParams(stmt, params);
+                    return stmt;
+                }, rowMapper)
+                : queryUtil.executeWithKeyset(sql, keyColumn, fetchSize, params, rowMapper);
+
+        return rows.subscriberContext(RoutingConnectionFactory.readOnly());
     }
 
     /**
      * insert a row and return the generated id
      */
     public Mono<Integer> insert(String sql, Object... params) {
-        return queryUtil.executeStatement(conn ->{
-            Statement stmt = createStatementWithParams(conn, sql, params);
+        return executeStatement(sql, params, stmt -> {
             stmt.returnGeneratedValues("id");
 
             return Flux.from(stmt.execute()).flatMap(result ->
@@ -45,6 +150,73 @@ public class CrudOperations {
         }).single();
     }
 
+    /**
+     * Insert many rows on one connection and return the generated ids in the same order as the rows.
+     * @see #insertAll(String, Flux, Function, BiFunction, int)
+     */
+    public Flux<Integer> insertAll(String sql, Flux<Object[]> rows) {
+        return insertAll(sql, rows, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Insert many rows on one connection and return the generated ids in the same order as the rows.
+     * @see #insertAll(String, Flux, Function, BiFunction, int)
+     */
+    public Flux<Integer> insertAll(String sql, Flux<Object[]> rows, int batchSize) {
+        return insertAll(sql, rows, Function.identity(), (params, id) -> id, batchSize);
+    }
+
+    /**
+     * Insert many elements on one connection.
+     * The elements are split in chunks of batchSize, every chunk is one statement with a binding per element (Statement#add).
+     * The next chunk is only requested when the ids of the previous chunk are consumed, so no more than one
+     * chunk is held in memory no matter how many elements are inserted.
+     *
+     * @param sql insert statement with $n placeholders
+     * @param elements elements to insert
+     * @param paramsMapper converts an element to the parameters for the placeholders
+     * @param idMapper combines an element with its generated id
+     * @param batchSize number of bindings per statement
+     * @return the result of the idMapper for every element, in the order of the elements
+     */
+    public <E, R> Flux<R> insertAll(String sql, Flux<E> elements, Function<E, Object[]> paramsMapper,
+                                    BiFunction<E, Integer, R> idMapper, int batchSize) {
+        if (batchSize < 1) {
+            return Flux.error(new IllegalArgumentException("batch size must be at least 1, was " + batchSize));
+        }
+
+        return queryUtil.executeStatement(conn ->
+                elements
+                        .buffer(batchSize)
+                        .concatMap(chunk -> insertChunk(conn, sql, chunk, paramsMapper, idMapper), 1)
+        );
+    }
+
+    private <E, R> Flux<R> insertChunk(Connection connection, String sql, List<E> chunk,
+                                       Function<E, Object[]> paramsMapper, BiFunction<E, Integer, R> idMapper) {
+        Statement stmt = createStatementWithBindings(connection, sql, chunk, paramsMapper);
+        stmt.returnGeneratedValues("id");
+
+        return Flux.from(stmt.execute())
+                .concatMap(result -> result.map((row, rm) -> row.get("id", Integer.class)))
+                .zipWithIterable(chunk, (id, element) -> idMapper.apply(element, id));
+    }
+
+    /**
+     * Run one update or delete with a binding per element (Statement#add) on one connection.
+     * @return the number of rows updated by every element, in the order of the elements
+     */
+    public <E> Flux<Integer> updateAll(String sql, List<E> elements, Function<E, Object[]> paramsMapper) {
+        if (elements.isEmpty()) {
+            return Flux.empty();
+        }
+
+        return queryUtil.executeStatement(conn ->
+                Flux.from(createStatementWithBindings(conn, sql, elements, paramsMapper).execute())
+                        .concatMap(Result::getRowsUpdated)
+        );
+    }
+
     /**
      * update record(s) and return the number of updated rows.
      */
@@ -60,19 +232,55 @@ public class CrudOperations {
     }
 
     private Mono<Integer> rowsUpdatedStatement(String sql, Object... params) {
-        return queryUtil.executeStatement(conn ->{
-            Statement stmt = createStatementWithParams(conn, sql, params);
+        return executeStatement(sql, params, stmt ->
+                Flux.from(stmt.execute()).flatMap(result ->
+                        Mono.from(result.getRowsUpdated())
+                )
+        ).single();
+    }
 
-            return Flux.from(stmt.execute()).flatMap(result ->
-                    Mono.from(result.getRowsUpdated())
-            );
-        }).single();
+    /**
+     * Start a batch of different parameterized statements that run on one connection.
+     * @see StatementBatch
+     */
+    public StatementBatch batch() {
+        return new StatementBatch();
+    }
+
+    public Dialect getDialect() {
+        return queryUtil.getDialect();
+    }
+
+    /**
+     * Create and bind the statement on a new connection.
+     */
+    private <T> Flux<T> executeStatement(String sql, Object[] params, Function<Statement, Publisher<? extends T>> execution) {
+        return queryUtil.executeStatement(conn -> execution.apply(createStatementWithParams(conn, sql, params)));
     }
 
-    // TODO check if param is null to use bindNull
     private Statement createStatementWithParams(Connection connection, String sql, Object... params) {
         Statement stmt = connection.createStatement(sql);
+        bindParams(stmt, params);
+
+        return stmt;
+    }
+
+    private <E> Statement createStatementWithBindings(Connection connection, String sql, List<E> elements,
+                                                      Function<E, Object[]> paramsMapper) {
+        Statement stmt = connection.createStatement(sql);
+
+        for (int i = 0; i < elements.size(); i++) {
+            // add() closes the previous binding, a trailing add() would leave an empty binding behind
+            if (i > 0) {
+                stmt.add();
+            }
+            bindParams(stmt, paramsMapper.apply(elements.get(i)));
+        }
 
+        return stmt;
+    }
+
+    private void bindParams(Statement stmt, Object... params) {
         for(int i = 0; i < params.length; i++) {
             Object param = params[i];
 
@@ -82,7 +290,79 @@ public class CrudOperations {
                 stmt.bind(i, params[i]);
             }
         }
+    }
 
-        return stmt;
+    /**
+     * Inserts, updates and deletes that are executed together on one connection.
+     *
+     * Unlike Connection#createBatch every statement can have its own parameters. All statements are executed
+     * right away, without waiting for the result of the previous one, so a driver that pipelines (postgres) sends
+     * them together instead of paying a round-trip per statement.
+     *
+     * <pre>
+     * crudOperations.batch()
+     *         .add("update goal set name = $1 where id = $2", "renamed", 1)
+     *         .add("delete from goal where id = $1", 2)
+     *         .inTransaction()
+     *         .execute(); // Flux of the rows updated per statement
+     * </pre>
+     */
+    public class StatementBatch {
+        private final List<Query> queries = new ArrayList<>();
+        private boolean transactional;
+
+        private StatementBatch() {
+        }
+
+        public StatementBatch add(String sql, Object... params) {
+            queries.add(Query.of(sql, params));
+            return this;
+        }
+
+        /**
+         * Run the statements in a transaction: when one fails, none of them are committed.
+         */
+        public StatementBatch inTransaction() {
+            this.transactional = true;
+            return this;
+        }
+
+        /**
+         * @return the rows updated by every statement, in the order they were added
+         */
+        public Flux<Integer> execute() {
+            if (queries.isEmpty()) {
+                return Flux.empty();
+            }
+
+            final List<Query> batch = new ArrayList<>(queries);
+            final boolean inTransaction = transactional;
+
+            if (!inTransaction) {
+                return queryUtil.executeStatement(conn -> executeAll(conn, batch));
+            }
+
+            // executeInTransaction commits after every element, so commit once for the whole list
+            return queryUtil.executeInTransaction(conn -> executeAll(conn, batch).collectList())
+                    .flatMapIterable(Function.identity());
+        }
+
+        /**
+         * subscribes to all statements at once, the rows updated are still emitted in statement order
+         */
+        private Flux<Integer> executeAll(Connection connection, List<Query> batch) {
+            return Flux.mergeSequential(
+                    Flux.range(0, batch.size()).map(i ->
+                            rowsUpdated(createStatementWithParams(connection, batch.get(i).getSql(), batch.get(i).getParams()))),
+                    batch.size(),
+                    1
+            );
+        }
+
+        private Mono<Integer> rowsUpdated(Statement stmt) {
+            return Flux.from(stmt.execute())
+                    .concatMap(Result::getRowsUpdated)
+                    .reduce(0, Integer::sum);
+        }
     }
 }
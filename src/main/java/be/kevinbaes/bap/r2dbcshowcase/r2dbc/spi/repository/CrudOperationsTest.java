@@ -36,7 +36,27 @@ public class CrudOperationsTest {
                     )
             );
 
-        System.out.println(updatedGoal.block());
+        Goal goal = updatedGoal.block();
+        System.out.println(goal);
+
+        // different statements on one connection, in one transaction
+        System.out.println("rows updated per statement: " + crudOperations.batch()
+                .add("insert into goal (name) values ($1)", "batched goal")
+                .add("update goal set name = $1 where id = $2", "renamed in a batch", goal.getId())
+                .add("delete from goal where name = $1", "batched goal")
+                .inTransaction()
+                .execute()
+                .collectList()
+                .block());
+
+        // map on the parallel scheduler instead of the I/O thread
+        OffloadedMapping offloading = OffloadedMapping.parallel(4, true);
+        System.out.println(crudOperations
+                .selectOffloaded("select id, name from goal", offloading,
+                        values -> new Goal((Integer) values[0], (String) values[1]))
+                .collectList()
+                .block());
+        offloading.getStats().forEach((sql, stats) -> System.out.println(sql + ": " + stats));
     }
 
     private Goal mapRow(Row row, RowMetadata metadata) {
@@ -1,62 +1,259 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
 
-import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
 import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
-import io.r2dbc.spi.Row;
-import io.r2dbc.spi.RowMetadata;
+import be.kevinbaes.bap.r2dbcshowcase.domain.GoalBatch;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.KeysetPages;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.RoutingConnectionFactory;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.Dialect;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.GoalBatchMapper;
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.GoalRowMapper;
+import io.r2dbc.spi.ConnectionFactory;
+import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 public class GoalRepository implements R2dbcRepository<Goal, Integer>{
 
     private final CrudOperations crudOperations;
+    private final GoalRowMapper rowMapper = new GoalRowMapper();
+
+    /**
+     * @param connectionFactory preferably a shared PooledConnectionProvider
+     */
+    public GoalRepository(ConnectionFactory connectionFactory) {
+        this(new CrudOperations(connectionFactory));
+    }
 
-    public GoalRepository() {
-        this.crudOperations = new CrudOperations(ConnectionUtil.postgresConnectionFactory());
+    public GoalRepository(CrudOperations crudOperations) {
+        this.crudOperations = crudOperations;
     }
 
     @Override
     public Flux<Goal> findAll() {
-        return crudOperations.select("select * from goal", this::mapRow);
+        return crudOperations.select("select * from goal", rowMapper);
+    }
+
+    /**
+     * One page of goals ordered by id, starting after the given id. Pass the id of the last goal of the previous
+     * page to get the next one, the index on id is used instead of skipping rows with an offset.
+     */
+    public Flux<Goal> findPage(int afterId, int limit) {
+        return crudOperations.select("select * from goal where id > $1 order by id limit $2", rowMapper, afterId, limit);
+    }
+
+    /**
+     * All goals in pages of pageSize, the next page is only queried when it is requested.
+     */
+    public Flux<List<Goal>> findAllPages(int pageSize) {
+        return new KeysetPages<>(pageSize, Goal::getId, this::findPage).after(Integer.MIN_VALUE);
     }
 
     @Override
     public Mono<Goal> findById(Integer id) {
-        return crudOperations.select("select * from goal where id = $1", this::mapRow, id).next();
+        return crudOperations.select("select * from goal where id = $1", rowMapper, id).next();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The ids are sent in chunks of CrudOperations#DEFAULT_BATCH_SIZE, one query per chunk on a single connection.
+     * Uses id = any($1) with an array parameter on postgres and an IN list on H2.
+     * Like findAll and findById this is read-only work for a RoutingConnectionFactory.
+     */
+    @Override
+    public Flux<Goal> findAllById(Publisher<Integer> ids) {
+        return crudOperations.selectInChunks(
+                Flux.from(ids),
+                CrudOperations.DEFAULT_BATCH_SIZE,
+                chunk -> idsQuery("select * from goal where ", chunk),
+                rowMapper
+        ).subscriberContext(RoutingConnectionFactory.readOnly());
+    }
+
+    /**
+     * Opt-in coalescing of concurrent findById calls: ids loaded within the window are fetched with one query.
+     * @see BatchLoader
+     */
+    public BatchLoader<Integer, Goal> batchLoader(Duration window, int maxBatchSize) {
+        return new BatchLoader<>(ids -> findAllById(Flux.fromIterable(ids)), Goal::getId, window, maxBatchSize);
+    }
+
+    /**
+     * Scan all goals split in id ranges, every range on its own connection.
+     * @see PartitionedScan
+     */
+    public PartitionedScan<Goal> partitionedScan(int partitions) {
+        return new PartitionedScan<>(crudOperations, "goal", "id", rowMapper, partitions);
+    }
+
+    /**
+     * All goals ordered by id in column oriented batches of batchSize goals, for scans that don't need a Goal
+     * per row. The rows are streamed in fetches of batchSize, a fetch is only made when the previous batch is consumed.
+     * @see GoalBatch
+     */
+    public Flux<GoalBatch> findAllBatches(int batchSize) {
+        if (batchSize < 1) {
+            return Flux.error(new IllegalArgumentException("batch size must be at least 1, was " + batchSize));
+        }
+
+        return Flux.defer(() -> {
+            GoalBatchMapper batchMapper = new GoalBatchMapper(batchSize);
+
+            return crudOperations.stream("select id, name from goal", "id", batchSize, batchMapper)
+                    .concatWith(Mono.fromCallable(batchMapper::finish))
+                    .filter(batch -> batch.size() > 0);
+        });
+    }
+
+    private Query idsQuery(String prefix, List<Integer> ids) {
+        if (crudOperations.getDialect() == Dialect.POSTGRES) {
+            return Query.of(prefix + "id = any($1)", (Object) ids.toArray(new Integer[0]));
+        }
+
+        StringBuilder sql = new StringBuilder(prefix).append("id in (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "$" : ", $").append(i + 1);
+        }
+
+        return Query.of(sql.append(')').toString(), ids.toArray());
     }
 
     /**
      * {@inheritDoc}
+     * A goal with id 0 is new and gets a generated id. Any other goal is updated, when no goal with that id
+     * exists it is inserted as a new goal with a generated id. Ids are never written explicitly, so the id
+     * sequence stays ahead of the ids in the table.
      */
     @Override
     public Mono<Goal> save(Goal element) {
-        return findById(element.getId())
-            .flatMap(
-                existingGoal -> crudOperations
-                    .update("update goal set name = $1 where id = $2", element.getGoal(), existingGoal.getId())
-                    .flatMap(rowsUpdated -> findById(existingGoal.getId()))
-            )
-            .switchIfEmpty(
-                crudOperations
+        if (element.getId() == 0) {
+            return insert(element);
+        }
+
+        return crudOperations
+                .update("update goal set name = $1 where id = $2", element.getGoal(), element.getId())
+                .flatMap(rowsUpdated -> rowsUpdated > 0
+                        ? Mono.just(new Goal(element.getId(), element.getGoal()))
+                        : insert(element));
+    }
+
+    /**
+     * Opt-in write-behind for save: updates of the same goal are coalesced and written with saveAll in batches.
+     * New goals (id 0) are inserted immediately.
+     * @see WriteBehindBuffer
+     */
+    public WriteBehindBuffer<Goal, Integer> writeBehind(Duration flushInterval, int maxBatchSize, int capacity) {
+        return new WriteBehindBuffer<>(
+                goals -> saveAll(Flux.fromIterable(goals)),
+                this::save,
+                goal -> goal.getId() == 0 ? null : goal.getId(),
+                flushInterval,
+                maxBatchSize,
+                capacity
+        );
+    }
+
+    private Mono<Goal> insert(Goal element) {
+        if (crudOperations.getDialect() == Dialect.H2) {
+            return crudOperations
                     .insert("insert into goal (name) values ($1)", element.getGoal())
-                    .flatMap(id -> findById(Integer.valueOf(id)))
-            );
+                    .map(id -> new Goal(id, element.getGoal()));
+        }
+
+        return crudOperations
+                .updateReturning("insert into goal (name) values ($1) returning id, name", rowMapper, element.getGoal())
+                .single();
     }
 
+    /**
+     * {@inheritDoc}
+     * Same rules as save, per chunk of CrudOperations#DEFAULT_BATCH_SIZE goals: the existing goals are updated with
+     * one statement with a binding per goal, then the new goals and the goals whose id didn't exist are inserted
+     * with CrudOperations#insertAll.
+     */
     @Override
-    public Mono<Integer> delete(Integer integer) {
-        return null;
+    public Flux<Goal> saveAll(Flux<Goal> elements) {
+        return elements
+                .buffer(CrudOperations.DEFAULT_BATCH_SIZE)
+                .concatMap(this::saveChunk, 1);
+    }
+
+    private Flux<Goal> saveChunk(List<Goal> chunk) {
+        List<Goal> existing = new ArrayList<>();
+        for (Goal goal : chunk) {
+            if (goal.getId() != 0) {
+                existing.add(goal);
+            }
+        }
+
+        Mono<List<Integer>> updated = existing.isEmpty()
+                ? Mono.just(new ArrayList<>())
+                : crudOperations.updateAll(
+                        "update goal set name = $1 where id = $2",
+                        existing,
+                        goal -> new Object[]{goal.getGoal(), goal.getId()}
+                ).collectList();
+
+        return updated.flatMapMany(rowsUpdated -> {
+            List<Goal> inserts = new ArrayList<>();
+            boolean[] isUpdated = new boolean[chunk.size()];
+
+            for (int i = 0, e = 0; i < chunk.size(); i++) {
+                Goal goal = chunk.get(i);
+                isUpdated[i] = goal.getId() != 0 && rowsUpdated.get(e++) > 0;
+
+                if (!isUpdated[i]) {
+                    inserts.add(goal);
+                }
+            }
+
+            Mono<List<Goal>> inserted = inserts.isEmpty()
+                    ? Mono.just(new ArrayList<>())
+                    : crudOperations.insertAll(
+                            "insert into goal (name) values ($1)",
+                            Flux.fromIterable(inserts),
+                            goal -> new Object[]{goal.getGoal()},
+                            (goal, id) -> new Goal(id, goal.getGoal()),
+                            CrudOperations.DEFAULT_BATCH_SIZE
+                    ).collectList();
+
+            // put the updated and inserted goals back in the order of the chunk
+            return inserted.flatMapIterable(insertedGoals -> {
+                List<Goal> saved = new ArrayList<>(chunk.size());
+
+                for (int i = 0, n = 0; i < chunk.size(); i++) {
+                    Goal goal = chunk.get(i);
+                    saved.add(isUpdated[i] ? new Goal(goal.getId(), goal.getGoal()) : insertedGoals.get(n++));
+                }
+
+                return saved;
+            });
+        });
     }
 
     @Override
-    public Mono<Integer> deleteAll() {
-        return crudOperations.delete("delete from goal;");
+    public Mono<Integer> delete(Integer id) {
+        return crudOperations.delete("delete from goal where id = $1", id);
     }
 
-    private Goal mapRow(Row row, RowMetadata metadata) {
-        return new Goal(
-                row.get("id", Integer.class),
-                row.get("name", String.class)
+    /**
+     * {@inheritDoc}
+     * The ids are deleted in chunks of CrudOperations#DEFAULT_BATCH_SIZE on a single connection.
+     */
+    @Override
+    public Mono<Integer> deleteAllById(Publisher<Integer> ids) {
+        return crudOperations.updateInChunks(
+                Flux.from(ids),
+                CrudOperations.DEFAULT_BATCH_SIZE,
+                chunk -> idsQuery("delete from goal where ", chunk)
         );
     }
+
+    @Override
+    public Mono<Integer> deleteAll() {
+        return crudOperations.delete("delete from goal;");
+    }
 }
@@ -1,7 +1,10 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
 
+import be.kevinbaes.bap.r2dbcshowcase.r2dbc.ConnectionUtil;
 import be.kevinbaes.bap.r2dbcshowcase.domain.Goal;
 
+import java.time.Duration;
+
 public class GoalRepositoryTest {
 
     public static void main(String[] args) {
@@ -20,12 +23,22 @@ public class GoalRepositoryTest {
         Goal updatedGoal = goalRepository.save(createdGoal).block();
 
         System.out.println(updatedGoal);
+
+        // the cache keeps its own copy, changing a found goal doesn't change the cached one until it is saved
+        CachingRepository<Goal, Integer> cachedGoals = new CachingRepository<>(goalRepository, Goal::getId,
+                goal -> new Goal(goal.getId(), goal.getGoal()), 100, Duration.ofMinutes(1));
+
+        Goal foundGoal = cachedGoals.findById(updatedGoal.getId()).block();
+        foundGoal.setGoal("changed but not saved");
+
+        System.out.println(cachedGoals.findById(updatedGoal.getId()).block());
+        System.out.println(cachedGoals);
     }
 
     private final GoalRepository goalRepository;
 
     public GoalRepositoryTest() {
-        this.goalRepository = new GoalRepository();
+        this.goalRepository = new GoalRepository(ConnectionUtil.pooledConnectionProvider());
     }
 
 
@@ -0,0 +1,168 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
+
+import io.r2dbc.spi.ColumnMetadata;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Moves row mapping off the driver's I/O thread, for mappers that are too expensive to run on the event loop.
+ *
+ * On the I/O thread every row is only copied into an Object[] with the values in column order, the mapper runs on
+ * the scheduler for up to parallelism rows at the same time. Only that many rows are requested from the driver
+ * ahead of the mapping, so a slow mapper slows down reading instead of buffering the result. This holds for
+ * CrudOperations#selectOffloaded, which reads the result with prefetch 1; rows that come from a Flux with a larger
+ * prefetch are buffered up to that prefetch. What the driver already received from the network stays buffered there.
+ * The time spent decoding (I/O thread) and mapping (scheduler) is recorded per sql statement.
+ *
+ * <pre>
+ * OffloadedMapping offloading = OffloadedMapping.parallel(4, true);
+ * crudOperations.selectOffloaded("select id, name from goal", offloading, values -> expensiveMapping(values));
+ * offloading.getStats().forEach((sql, stats) -> System.out.println(sql + ": " + stats));
+ * </pre>
+ */
+public class OffloadedMapping {
+
+    private final Scheduler scheduler;
+    private final int parallelism;
+    private final boolean ordered;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param scheduler runs the mapper, e.g. Schedulers.parallel() for CPU bound mapping
+     * @param parallelism rows mapped at the same time, also the number of rows read ahead of the mapping
+     * @param ordered emit the mapped rows in the order of the result, a slow row then holds back the ones after it
+     */
+    public OffloadedMapping(Scheduler scheduler, int parallelism, boolean ordered) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, was " + parallelism);
+        }
+
+        this.scheduler = scheduler;
+        this.parallelism = parallelism;
+        this.ordered = ordered;
+    }
+
+    /**
+     * Map on Schedulers.parallel()
+     */
+    public static OffloadedMapping parallel(int parallelism, boolean ordered) {
+        return new OffloadedMapping(Schedulers.parallel(), parallelism, ordered);
+    }
+
+    Stats statsFor(String sql) {
+        return stats.computeIfAbsent(sql, key -> new Stats());
+    }
+
+    <T> Flux<T> map(Flux<Object[]> rows, Stats queryStats, Function<Object[], T> mapper) {
+        Function<Object[], Mono<T>> mapOnScheduler = values -> Mono.fromCallable(() -> {
+            long start = System.nanoTime();
+            T mapped = mapper.apply(values);
+            queryStats.mapNanos.add(System.nanoTime() - start);
+
+            return mapped;
+        }).subscribeOn(scheduler);
+
+        Flux<T> mapped = ordered
+                ? rows.flatMapSequential(mapOnScheduler, parallelism, 1)
+                : rows.flatMap(mapOnScheduler, parallelism, 1);
+
+        return mapped.doOnSubscribe(s -> queryStats.queries.increment());
+    }
+
+    /**
+     * statistics per sql statement
+     */
+    public Map<String, Stats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    public static class Stats {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+        private final LongAdder mapNanos = new LongAdder();
+        private volatile ColumnCount columnCount;
+
+        /**
+         * runs on the I/O thread: copy the values of the row in column order
+         */
+        Object[] decode(Row row, RowMetadata rowMetadata) {
+            long start = System.nanoTime();
+
+            ColumnCount count = columnCount;
+            if (count == null || count.rowMetadata != rowMetadata) {
+                count = new ColumnCount(rowMetadata);
+                columnCount = count;
+            }
+
+            Object[] values = new Object[count.columns];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.get(i, Object.class);
+            }
+
+            rows.increment();
+            decodeNanos.add(System.nanoTime() - start);
+
+            return values;
+        }
+
+        public long getQueries() {
+            return queries.sum();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        /**
+         * average time per row on the driver's I/O thread
+         */
+        public long decodeNanosPerRow() {
+            long rowCount = rows.sum();
+            return rowCount == 0 ? 0 : decodeNanos.sum() / rowCount;
+        }
+
+        /**
+         * average time per row in the mapper, on the scheduler
+         */
+        public long mapNanosPerRow() {
+            long rowCount = rows.sum();
+            return rowCount == 0 ? 0 : mapNanos.sum() / rowCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "queries=" + getQueries() +
+                    ", rows=" + getRows() +
+                    ", decode=" + decodeNanosPerRow() + "ns/row" +
+                    ", map=" + mapNanosPerRow() + "ns/row" +
+                    '}';
+        }
+    }
+
+    private static class ColumnCount {
+        private final RowMetadata rowMetadata;
+        private final int columns;
+
+        private ColumnCount(RowMetadata rowMetadata) {
+            int count = 0;
+            for (ColumnMetadata ignored : rowMetadata.getColumnMetadatas()) {
+                count++;
+            }
+
+            this.rowMetadata = rowMetadata;
+            this.columns = count;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
+
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Full table scan split in id ranges that are queried concurrently, each on its own connection.
+ *
+ * The min and max id are looked up first, the range between them is split in equal partitions. With a pooled
+ * ConnectionFactory the partitions run in parallel up to the pool size, so a large export isn't limited by
+ * what a single connection can stream. Gaps in the ids make some partitions smaller than others.
+ *
+ * <pre>
+ * PartitionedScan&lt;Goal&gt; scan = goalRepository.partitionedScan(4);
+ * scan.unordered().subscribe(...);
+ * scan.getPartitions().forEach(System.out::println);
+ * </pre>
+ */
+public class PartitionedScan<T> {
+
+    private final CrudOperations crudOperations;
+    private final String table;
+    private final String idColumn;
+    private final BiFunction<Row, RowMetadata, T> rowMapper;
+    private final int partitionCount;
+
+    private volatile List<Partition> partitions = Collections.emptyList();
+
+    /**
+     * @param table table to scan
+     * @param idColumn integer column to split the table on, should be indexed
+     * @param rowMapper converts the rows of every partition
+     * @param partitionCount number of ranges, and so the maximum number of connections used at the same time
+     */
+    public PartitionedScan(CrudOperations crudOperations, String table, String idColumn,
+                           BiFunction<Row, RowMetadata, T> rowMapper, int partitionCount) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partition count must be at least 1, was " + partitionCount);
+        }
+
+        this.crudOperations = crudOperations;
+        this.table = table;
+        this.idColumn = idColumn;
+        this.rowMapper = rowMapper;
+        this.partitionCount = partitionCount;
+    }
+
+    /**
+     * All rows ordered by id. Rows of later partitions that arrive before the earlier partitions are done
+     * are buffered, so this can use more memory than unordered().
+     */
+    public Flux<T> ordered() {
+        return partitions().flatMapMany(ranges ->
+                Flux.mergeSequential(scanAll(ranges, true), partitionCount, 256));
+    }
+
+    /**
+     * All rows in the order they arrive from the partitions.
+     */
+    public Flux<T> unordered() {
+        return partitions().flatMapMany(ranges ->
+                Flux.merge(scanAll(ranges, false), partitionCount));
+    }
+
+    /**
+     * The partitions of the last started scan with their progress.
+     */
+    public List<Partition> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * rows scanned by the last started scan
+     */
+    public long getRowsScanned() {
+        long rows = 0;
+        for (Partition partition : partitions) {
+            rows += partition.getRows();
+        }
+
+        return rows;
+    }
+
+    private Flux<Flux<T>> scanAll(List<Partition> ranges, boolean ordered) {
+        return Flux.fromIterable(ranges).map(partition -> scan(partition, ordered));
+    }
+
+    private Flux<T> scan(Partition partition, boolean ordered) {
+        String sql = "select * from " + table + " where " + idColumn + " >= $1 and " + idColumn + " <= $2" +
+                (ordered ? " order by " + idColumn : "");
+
+        return crudOperations.select(sql, rowMapper, partition.lowerId, partition.upperId)
+                .doOnSubscribe(s -> partition.start())
+                .doOnNext(row -> partition.rows.increment())
+                .doFinally(signal -> partition.finish());
+    }
+
+    private Mono<List<Partition>> partitions() {
+        String sql = "select min(" + idColumn + ") as min_id, max(" + idColumn + ") as max_id from " + table;
+
+        return crudOperations
+                .select(sql, (row, rm) -> {
+                    Integer min = row.get("min_id", Integer.class);
+                    Integer max = row.get("max_id", Integer.class);
+
+                    return min == null ? Collections.<Partition>emptyList() : split(min, max);
+                })
+                .single()
+                .doOnNext(ranges -> this.partitions = ranges);
+    }
+
+    private List<Partition> split(int min, int max) {
+        long size = (long) max - min + 1;
+        List<Partition> ranges = new ArrayList<>(partitionCount);
+
+        for (int i = 0; i < partitionCount; i++) {
+            long lower = min + size * i / partitionCount;
+            long upper = min + size * (i + 1) / partitionCount - 1;
+
+            // more partitions than ids
+            if (lower <= upper) {
+                ranges.add(new Partition(ranges.size(), (int) lower, (int) upper));
+            }
+        }
+
+        return ranges;
+    }
+
+    public static class Partition {
+        private final int index;
+        private final int lowerId;
+        private final int upperId;
+        private final LongAdder rows = new LongAdder();
+        private volatile long startedAt;
+        private volatile long finishedAt;
+
+        private Partition(int index, int lowerId, int upperId) {
+            this.index = index;
+            this.lowerId = lowerId;
+            this.upperId = upperId;
+        }
+
+        private void start() {
+            startedAt = System.nanoTime();
+        }
+
+        private void finish() {
+            finishedAt = System.nanoTime();
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * first id of the range, inclusive
+         */
+        public int getLowerId() {
+            return lowerId;
+        }
+
+        /**
+         * last id of the range, inclusive
+         */
+        public int getUpperId() {
+            return upperId;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public boolean isFinished() {
+            return finishedAt != 0;
+        }
+
+        /**
+         * time since the partition started, or until it finished
+         */
+        public Duration elapsed() {
+            if (startedAt == 0) {
+                return Duration.ZERO;
+            }
+
+            return Duration.ofNanos((finishedAt != 0 ? finishedAt : System.nanoTime()) - startedAt);
+        }
+
+        @Override
+        public String toString() {
+            return "Partition{" +
+                    "index=" + index +
+                    ", ids=[" + lowerId + ", " + upperId + "]" +
+                    ", rows=" + getRows() +
+                    ", elapsed=" + elapsed().toMillis() + "ms" +
+                    (isFinished() ? ", finished" : "") +
+                    '}';
+        }
+    }
+}
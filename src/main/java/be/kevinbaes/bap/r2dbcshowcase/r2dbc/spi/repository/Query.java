@@ -0,0 +1,35 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
+
+/**
+ * SQL with $n placeholders and the parameters to bind to them, for statements that are built at runtime.
+ */
+public class Query {
+
+    private final String sql;
+    private final Object[] params;
+
+    private Query(String sql, Object[] params) {
+        this.sql = sql;
+        this.params = params;
+    }
+
+    public static Query of(String sql, Object... params) {
+        return new Query(sql, params);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Object[] getParams() {
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return "Query{" +
+                "sql='" + sql + '\'' +
+                ", params=" + params.length +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
 
+import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -8,12 +9,29 @@ public interface R2dbcRepository<T, ID> {
     Flux<T> findAll();
     Mono<T> findById(ID id);
 
+    /**
+     * Find the elements of all ids, ids that don't exist are skipped.
+     * The elements are emitted as they are found, not necessarily in the order of the ids.
+     */
+    Flux<T> findAllById(Publisher<ID> ids);
+
     /**
      * Insert or update an element
      * @return the inserted or updated element
      */
     Mono<T> save(T element);
 
+    /**
+     * Insert or update all elements
+     * @return the inserted or updated elements, in the same order
+     */
+    Flux<T> saveAll(Flux<T> elements);
+
     Mono<Integer> delete(ID id);
+
+    /**
+     * @return the number of deleted elements
+     */
+    Mono<Integer> deleteAllById(Publisher<ID> ids);
     Mono<Integer> deleteAll();
 }
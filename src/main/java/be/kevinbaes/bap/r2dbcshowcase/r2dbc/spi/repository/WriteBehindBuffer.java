@@ -0,0 +1,374 @@
+package be.kevinbaes.bap.r2dbcshowcase.r2dbc.spi.repository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Buffers saves and writes them in batches, for many small updates where the caller can wait a bit for the write.
+ *
+ * Saves of the same id are coalesced: only the last element is written and every save of that id completes with
+ * the written element. The buffer is flushed when it holds maxBatchSize ids or when flushInterval has passed since
+ * the first buffered save. The Mono of a save only completes when the batch with its element is written, or errors
+ * when that batch failed.
+ *
+ * At most capacity ids are buffered. Saves of other ids wait, without completing, until a flush made room for
+ * them, so callers are slowed down to the speed of the flushes. At most maxWaiting saves wait, the saves after
+ * that fail with a BufferFullException instead of filling the memory.
+ * Elements without an id (the id extractor returns null) can't be coalesced and are saved immediately.
+ * Only one batch is written at a time, so saves of the same id are written in order.
+ *
+ * <pre>
+ * WriteBehindBuffer&lt;Goal, Integer&gt; writes = goalRepository.writeBehind(Duration.ofMillis(50), 100, 1000);
+ * writes.save(new Goal(1, "done")).subscribe(...);
+ * </pre>
+ */
+public class WriteBehindBuffer<T, ID> {
+
+    private final Function<List<T>, Flux<T>> flushFunction;
+    private final Function<T, Mono<T>> saveFunction;
+    private final Function<T, ID> idExtractor;
+    private final long flushIntervalNanos;
+    private final int maxBatchSize;
+    private final int capacity;
+    private final int maxWaiting;
+    private final Scheduler scheduler;
+
+    private final Object lock = new Object();
+    private Map<ID, Entry<ID, T>> buffer = new LinkedHashMap<>();
+    private final Deque<Entry<ID, T>> waiting = new ArrayDeque<>();
+    private boolean flushing;
+    private boolean flushRequested;
+    private long generation;
+
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedElements = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+    private final AtomicLong largestBatch = new AtomicLong();
+
+    /**
+     * @param flushFunction writes a batch of elements with distinct ids and returns the written elements in the
+     *                      order of the batch
+     * @param saveFunction saves a single element that has no id
+     * @param idExtractor gets the id of an element, null for elements that aren't stored yet
+     * @param flushInterval maximum time an element stays in the buffer when there is no flush running
+     * @param maxBatchSize flush as soon as this many ids are buffered
+     * @param capacity maximum number of buffered ids, saves of other ids wait for a flush, up to capacity of them
+     */
+    public WriteBehindBuffer(Function<List<T>, Flux<T>> flushFunction, Function<T, Mono<T>> saveFunction,
+                             Function<T, ID> idExtractor, Duration flushInterval, int maxBatchSize, int capacity) {
+        this(flushFunction, saveFunction, idExtractor, flushInterval, maxBatchSize, capacity, capacity, Schedulers.parallel());
+    }
+
+    /**
+     * @param maxWaiting maximum number of saves waiting for room in the buffer, 0 to fail as soon as it is full
+     */
+    public WriteBehindBuffer(Function<List<T>, Flux<T>> flushFunction, Function<T, Mono<T>> saveFunction,
+                             Function<T, ID> idExtractor, Duration flushInterval, int maxBatchSize, int capacity,
+                             int maxWaiting, Scheduler scheduler) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("batch size must be at least 1, was " + maxBatchSize);
+        }
+        if (capacity < maxBatchSize) {
+            throw new IllegalArgumentException("capacity must be at least the batch size " + maxBatchSize + ", was " + capacity);
+        }
+        if (maxWaiting < 0) {
+            throw new IllegalArgumentException("max waiting must be at least 0, was " + maxWaiting);
+        }
+
+        this.flushFunction = flushFunction;
+        this.saveFunction = saveFunction;
+        this.idExtractor = idExtractor;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.capacity = capacity;
+        this.maxWaiting = maxWaiting;
+        this.scheduler = scheduler;
+    }
+
+    public Mono<T> save(T element) {
+        return Mono.defer(() -> {
+            ID id = idExtractor.apply(element);
+
+            if (id == null) {
+                return saveFunction.apply(element);
+            }
+
+            return Mono.create(sink -> enqueue(new Entry<>(id, element, sink)));
+        });
+    }
+
+    /**
+     * Write the buffered elements now instead of waiting for the interval.
+     */
+    public void flush() {
+        Map<ID, Entry<ID, T>> batch;
+
+        synchronized (lock) {
+            batch = takeBatch(true);
+        }
+
+        execute(batch);
+    }
+
+    private void enqueue(Entry<ID, T> entry) {
+        Map<ID, Entry<ID, T>> batch;
+        boolean rejected = false;
+        saves.increment();
+
+        synchronized (lock) {
+            boolean full = !buffer.containsKey(entry.id) && buffer.size() >= capacity;
+
+            if (full && waiting.size() >= maxWaiting) {
+                rejections.increment();
+                rejected = true;
+                batch = takeBatch(true);
+            } else if (full) {
+                waited.increment();
+                waiting.add(entry);
+                batch = takeBatch(true);
+            } else {
+                add(entry);
+                batch = takeBatch(false);
+            }
+        }
+
+        if (rejected) {
+            entry.error(new BufferFullException(capacity + " ids buffered and " + maxWaiting + " saves waiting"));
+        }
+        execute(batch);
+    }
+
+    /**
+     * add to the buffer, or coalesce with the buffered element of the same id
+     */
+    private void add(Entry<ID, T> entry) {
+        Entry<ID, T> buffered = buffer.get(entry.id);
+
+        if (buffered != null) {
+            coalesced.increment();
+            buffered.coalesce(entry);
+            return;
+        }
+
+        if (buffer.isEmpty()) {
+            final long flushGeneration = generation;
+            scheduler.schedule(() -> flushAfterInterval(flushGeneration), flushIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        buffer.put(entry.id, entry);
+    }
+
+    private void flushAfterInterval(long flushGeneration) {
+        Map<ID, Entry<ID, T>> batch;
+
+        synchronized (lock) {
+            if (flushGeneration != generation) {
+                return;
+            }
+            batch = takeBatch(true);
+        }
+
+        execute(batch);
+    }
+
+    /**
+     * Takes the buffered entries when a flush is due and no other flush is running, otherwise null.
+     * A forced flush that has to wait for the running one is done right after it.
+     */
+    private Map<ID, Entry<ID, T>> takeBatch(boolean force) {
+        if (flushing) {
+            flushRequested |= force;
+            return null;
+        }
+
+        if (buffer.isEmpty() || (!force && buffer.size() < maxBatchSize)) {
+            return null;
+        }
+
+        Map<ID, Entry<ID, T>> batch = buffer;
+        buffer = new LinkedHashMap<>();
+        generation++;
+        flushing = true;
+        flushRequested = false;
+
+        while (!waiting.isEmpty() && (buffer.size() < capacity || buffer.containsKey(waiting.peek().id))) {
+            add(waiting.poll());
+        }
+
+        return batch;
+    }
+
+    private void execute(Map<ID, Entry<ID, T>> batch) {
+        if (batch == null) {
+            return;
+        }
+
+        List<T> elements = new ArrayList<>(batch.size());
+        for (Entry<ID, T> entry : batch.values()) {
+            elements.add(entry.element);
+        }
+
+        flushes.increment();
+        flushedElements.add(elements.size());
+        largestBatch.accumulateAndGet(elements.size(), Math::max);
+
+        // match by position, a written element can have another id than the buffered one (e.g. a generated id)
+        final Iterator<Entry<ID, T>> entries = batch.values().iterator();
+
+        Flux.defer(() -> flushFunction.apply(elements)).subscribe(
+                written -> {
+                    if (entries.hasNext()) {
+                        entries.next().success(written);
+                    }
+                },
+                error -> {
+                    failedFlushes.increment();
+                    entries.forEachRemaining(entry -> entry.error(error));
+                    flushed();
+                },
+                () -> {
+                    // written without being returned
+                    entries.forEachRemaining(entry -> entry.success(entry.element));
+                    flushed();
+                }
+        );
+    }
+
+    /**
+     * Start the next flush when it's already due, on the scheduler so synchronous drivers don't recurse.
+     */
+    private void flushed() {
+        Map<ID, Entry<ID, T>> batch;
+
+        synchronized (lock) {
+            flushing = false;
+            batch = takeBatch(flushRequested || !waiting.isEmpty());
+        }
+
+        if (batch != null) {
+            scheduler.schedule(() -> execute(batch));
+        }
+    }
+
+    /**
+     * number of buffered ids, not counting the batch that is being written
+     */
+    public int size() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    /**
+     * number of saves waiting for room in the buffer
+     */
+    public int waiting() {
+        synchronized (lock) {
+            return waiting.size();
+        }
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.sum();
+    }
+
+    /**
+     * saves that replaced a buffered element of the same id
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * saves that had to wait because the buffer was full
+     */
+    public long getWaited() {
+        return waited.sum();
+    }
+
+    /**
+     * saves that failed with a BufferFullException
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public double averageBatchSize() {
+        long flushCount = flushes.sum();
+
+        return flushCount == 0 ? 0 : (double) flushedElements.sum() / flushCount;
+    }
+
+    public long getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindBuffer{" +
+                "saves=" + saves.sum() +
+                ", coalesced=" + getCoalesced() +
+                ", waited=" + getWaited() +
+                ", rejections=" + getRejections() +
+                ", flushes=" + getFlushes() +
+                ", failedFlushes=" + getFailedFlushes() +
+                ", averageBatchSize=" + String.format("%.1f", averageBatchSize()) +
+                ", largestBatch=" + getLargestBatch() +
+                '}';
+    }
+
+    public static class BufferFullException extends RuntimeException {
+        public BufferFullException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Entry<ID, T> {
+        private final ID id;
+        private T element;
+        private final List<MonoSink<T>> sinks = new ArrayList<>(1);
+
+        private Entry(ID id, T element, MonoSink<T> sink) {
+            this.id = id;
+            this.element = element;
+            this.sinks.add(sink);
+        }
+
+        private void coalesce(Entry<ID, T> newer) {
+            element = newer.element;
+            sinks.addAll(newer.sinks);
+        }
+
+        private void success(T written) {
+            sinks.forEach(sink -> sink.success(written));
+        }
+
+        private void error(Throwable error) {
+            sinks.forEach(sink -> sink.error(error));
+        }
+    }
+}